@@ -0,0 +1,66 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Konrad Iwanicki (iwanicki@mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A transaction manager whose operations never block
+ * the calling thread while waiting for a resource.
+ * A transaction may have at most one operation in
+ * progress at a time.
+ */
+public interface AsyncTransactionManager {
+
+	public TransactionHandle beginTransaction();
+
+	/**
+	 * Performs the operation once the resource has been
+	 * acquired. The returned future is completed
+	 * exceptionally with the exception the blocking
+	 * variant would throw, e.g. with
+	 * {@link ActiveTransactionAborted} if the transaction
+	 * has been chosen as a deadlock victim.
+	 */
+	public CompletableFuture<Void> operateOnResourceAsync(
+			TransactionHandle transaction,
+			ResourceId rid,
+			ResourceOperation operation
+	);
+
+	public void commitTransaction(
+			TransactionHandle transaction
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
+	public void rollbackTransaction(
+			TransactionHandle transaction
+	);
+
+	public boolean isTransactionAborted(
+			TransactionHandle transaction
+	);
+
+	/**
+	 * Opens a snapshot of all the resources, as of
+	 * the last committed transaction.
+	 * @throws IllegalStateException If the manager
+	 *     does not keep past versions of resources.
+	 */
+	public SnapshotReader openSnapshot();
+
+	public TransactionManagerStats getStats();
+
+	/**
+	 * Releases files held by the manager. The manager
+	 * must not be used afterwards.
+	 */
+	public void shutdown();
+
+}
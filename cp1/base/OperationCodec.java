@@ -0,0 +1,46 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Konrad Iwanicki (iwanicki@mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Translates resource identifiers and operations
+ * to bytes and back, so that a transaction manager
+ * may log committed operations in a file.
+ * Decoding what has been encoded must yield an
+ * equal identifier and an operation with the same
+ * effect.
+ */
+public interface OperationCodec {
+
+	public void writeResourceId(
+			ResourceId rid,
+			DataOutput out
+	) throws
+		IOException;
+
+	public ResourceId readResourceId(
+			DataInput in
+	) throws
+		IOException;
+
+	public void writeOperation(
+			ResourceOperation operation,
+			DataOutput out
+	) throws
+		IOException;
+
+	public ResourceOperation readOperation(
+			DataInput in
+	) throws
+		IOException;
+
+}
@@ -7,6 +7,10 @@
  */
 package cp1.base;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public class Resource {
 
 	private final ResourceId id;
@@ -27,6 +31,48 @@ public class Resource {
 		o.undo(this);
 	}
 
+	/**
+	 * Writes the state of the resource to a
+	 * checkpoint. Resources managed by a transaction
+	 * manager with a state directory must override
+	 * this method and {@link #restoreState(DataInput)}.
+	 * @param out Output to write the state to.
+	 * @throws IOException If writing failed.
+	 */
+	public void saveState(DataOutput out) throws IOException {
+		throw new UnsupportedOperationException(
+				"Resource " + this.id + " cannot be saved"
+		);
+	}
+
+	/**
+	 * Replaces the state of the resource with one
+	 * written by {@link #saveState(DataOutput)}.
+	 * @param in Input to read the state from.
+	 * @throws IOException If reading failed.
+	 */
+	public void restoreState(DataInput in) throws IOException {
+		throw new UnsupportedOperationException(
+				"Resource " + this.id + " cannot be restored"
+		);
+	}
+
+	/**
+	 * Creates a resource with the same id, into
+	 * which a past state of this one is restored
+	 * for snapshot reads. Resources managed by a
+	 * transaction manager offering snapshot reads
+	 * must override this method together with
+	 * {@link #saveState(DataOutput)} and
+	 * {@link #restoreState(DataInput)}.
+	 * @return A new resource with the same id.
+	 */
+	public Resource newInstance() {
+		throw new UnsupportedOperationException(
+				"Resource " + this.id + " cannot be copied"
+		);
+	}
+
 	@Override
 	protected final Object clone() throws CloneNotSupportedException {
 		throw new CloneNotSupportedException();
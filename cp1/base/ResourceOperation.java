@@ -13,6 +13,16 @@ public abstract class ResourceOperation {
 	
 	public abstract void undo(Resource r);
 
+	/**
+	 * Read-only operations may be performed by many
+	 * transactions on the same resource at once.
+	 * @return Whether the operation does not modify
+	 *     the resource.
+	 */
+	public boolean isReadOnly() {
+		return false;
+	}
+
 	@Override
 	protected final Object clone() throws CloneNotSupportedException {
 		throw new CloneNotSupportedException();
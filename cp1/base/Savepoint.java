@@ -0,0 +1,19 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Konrad Iwanicki (iwanicki@mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * An opaque reference to a point within a transaction,
+ * to which the transaction may be rolled back without
+ * being discarded.
+ */
+public interface Savepoint {
+
+	public long getTransactionId();
+
+}
@@ -0,0 +1,39 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Konrad Iwanicki (iwanicki@mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * A consistent view of all the resources as they
+ * were when the snapshot was opened: it reflects
+ * every transaction committed before and none
+ * committed after. Reads never wait for writers
+ * nor make them wait.
+ */
+public interface SnapshotReader extends AutoCloseable {
+
+	/**
+	 * Performs a read-only operation on the state
+	 * the resource had when the snapshot was opened.
+	 * @throws IllegalArgumentException If the
+	 *     operation is not read-only.
+	 */
+	public void read(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		UnknownResourceIdException,
+		ResourceOperationException;
+
+	/**
+	 * Lets the manager discard versions of the
+	 * resources kept for this snapshot.
+	 */
+	@Override
+	public void close();
+
+}
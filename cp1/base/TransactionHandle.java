@@ -0,0 +1,18 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Konrad Iwanicki (iwanicki@mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * An opaque reference to a transaction, which is not
+ * bound to the thread that has started it.
+ */
+public interface TransactionHandle {
+
+	public long getId();
+
+}
@@ -7,6 +7,9 @@
  */
 package cp1.base;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The transaction manager interface your
  * solution has to implement.
@@ -18,6 +21,15 @@ public interface TransactionManager {
 	public void startTransaction(
 	) throws
 		AnotherTransactionActiveException;
+
+	/**
+	 * Like {@link #startTransaction()}, but the transaction
+	 * waits for resources in the given priority class.
+	 */
+	public void startTransaction(
+			TransactionPriority priority
+	) throws
+		AnotherTransactionActiveException;
 	
 	public void operateOnResourceInCurrentTransaction(
 			ResourceId rid,
@@ -28,6 +40,128 @@ public interface TransactionManager {
 		ActiveTransactionAborted,
 		ResourceOperationException,
 		InterruptedException;
+
+	/**
+	 * Like {@link #operateOnResourceInCurrentTransaction(ResourceId, ResourceOperation)},
+	 * but does nothing and returns <code>false</code> instead of
+	 * waiting if the resource is held by another transaction.
+	 */
+	public boolean tryOperateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException;
+
+	/**
+	 * Like {@link #operateOnResourceInCurrentTransaction(ResourceId, ResourceOperation)},
+	 * but waits for the resource at most the given time. On
+	 * timeout, the operation is not performed, <code>false</code>
+	 * is returned and the transaction remains active.
+	 */
+	public boolean operateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation,
+			long timeout,
+			TimeUnit unit
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+	
+	/**
+	 * Acquires exclusive access to all the given resources
+	 * at once, in the order of their identifiers.
+	 * Transactions acquiring all their resources up front
+	 * this way cannot deadlock with each other.
+	 */
+	public void acquireAllInCurrentTransaction(
+			Collection<ResourceId> rids
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		InterruptedException;
+	
+	/**
+	 * Acquires shared or exclusive access to all the
+	 * members of a group at once, including members
+	 * registered later.
+	 */
+	public void acquireGroupInCurrentTransaction(
+			ResourceId group,
+			boolean exclusive
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		InterruptedException;
+	
+	/**
+	 * Starts a transaction which is not bound to the
+	 * calling thread. Any thread may operate on it
+	 * through the returned handle, one at a time.
+	 */
+	public TransactionHandle beginTransaction();
+
+	public TransactionHandle beginTransaction(
+			TransactionPriority priority
+	);
+
+	public void operateOnResource(
+			TransactionHandle transaction,
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+
+	public void commitTransaction(
+			TransactionHandle transaction
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
+	public void rollbackTransaction(
+			TransactionHandle transaction
+	);
+
+	/**
+	 * The first phase of a two-phase commit: makes sure
+	 * the transaction can commit and promises it will.
+	 * A prepared transaction keeps its resources, can
+	 * perform no more operations and is no longer aborted,
+	 * until it is committed or rolled back.
+	 * @throws IllegalStateException If the manager runs
+	 *     transactions optimistically.
+	 */
+	public void prepareTransaction(
+			TransactionHandle transaction
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
+	/**
+	 * Aborts an active transaction from outside, e.g. a
+	 * victim of a deadlock spanning several managers,
+	 * waking it up if it waits for a resource. It still
+	 * has to be rolled back. Prepared transactions are
+	 * not affected.
+	 */
+	public void abortTransaction(
+			TransactionHandle transaction
+	);
+
+	public boolean isTransactionAborted(
+			TransactionHandle transaction
+	);
 	
 	public void commitCurrentTransaction(
 	) throws
@@ -36,8 +170,99 @@ public interface TransactionManager {
 	
 	public void rollbackCurrentTransaction();
 
+	/**
+	 * Marks the current point of a transaction, to which
+	 * it may later be rolled back without being discarded.
+	 */
+	public Savepoint setSavepoint(
+			TransactionHandle transaction
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
+	public Savepoint setSavepointInCurrentTransaction(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
+	/**
+	 * Undoes the operations performed since the savepoint
+	 * was set, leaving the transaction active. Savepoints
+	 * set after the given one are dropped.
+	 * @param releaseResources Whether to also release the
+	 *     resources the transaction first acquired after
+	 *     the savepoint.
+	 * @throws IllegalArgumentException If the savepoint
+	 *     is not one of the transaction's, or has been
+	 *     dropped.
+	 */
+	public void rollbackToSavepoint(
+			TransactionHandle transaction,
+			Savepoint savepoint,
+			boolean releaseResources
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
+	public void rollbackCurrentTransactionToSavepoint(
+			Savepoint savepoint,
+			boolean releaseResources
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+
 	public boolean isTransactionActive();
 
 	public boolean isTransactionAborted();
 
+	/**
+	 * Adds a resource to the managed ones.
+	 * @return <code>false</code> if a resource with the
+	 *     same identifier is already managed.
+	 */
+	public boolean registerResource(
+			Resource resource
+	);
+
+	/**
+	 * Like {@link #registerResource(Resource)}, but makes
+	 * the resource a member of a group, identified by an
+	 * id distinct from ids of resources. A group need not
+	 * be declared otherwise.
+	 */
+	public boolean registerResource(
+			Resource resource,
+			ResourceId group
+	);
+
+	/**
+	 * Removes a resource from the managed ones, waiting
+	 * until no transaction holds it. Later operations
+	 * on it fail with {@link UnknownResourceIdException}.
+	 * Must not be called by a thread whose transaction
+	 * holds the resource.
+	 * @return <code>false</code> if the resource is not
+	 *     managed.
+	 */
+	public boolean unregisterResource(
+			ResourceId rid
+	) throws
+		InterruptedException;
+
+	/**
+	 * Opens a snapshot of all the resources, as of
+	 * the last committed transaction.
+	 * @throws IllegalStateException If the manager
+	 *     does not keep past versions of resources.
+	 */
+	public SnapshotReader openSnapshot();
+
+	public TransactionManagerStats getStats();
+
+	/**
+	 * Releases files held by the manager. The manager
+	 * must not be used afterwards.
+	 */
+	public void shutdown();
+
 }
@@ -0,0 +1,230 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Konrad Iwanicki (iwanicki@mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A point-in-time snapshot of a transaction manager's
+ * counters, taken since the manager has been created.
+ */
+public final class TransactionManagerStats {
+
+	/**
+	 * Summary of a distribution of recorded values.
+	 * Percentiles are accurate to a few percent.
+	 */
+	public static final class Distribution {
+
+		private final long count;
+		private final double mean;
+		private final long p50;
+		private final long p99;
+		private final long p999;
+		private final long max;
+
+		public Distribution(
+				long count,
+				double mean,
+				long p50,
+				long p99,
+				long p999,
+				long max
+		) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		public double getMean() {
+			return this.mean;
+		}
+
+		public long getP50() {
+			return this.p50;
+		}
+
+		public long getP99() {
+			return this.p99;
+		}
+
+		public long getP999() {
+			return this.p999;
+		}
+
+		public long getMax() {
+			return this.max;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + this.count + ", mean=" + this.mean +
+					", p50=" + this.p50 + ", p99=" + this.p99 +
+					", p99.9=" + this.p999 + ", max=" + this.max;
+		}
+
+	}
+
+	private final long started;
+	private final long committed;
+	private final long rolledBack;
+	private final long aborted;
+	private final long waits;
+	private final long deadlocks;
+	private final long deadlockSweeps;
+	private final long failedDeadlockSweeps;
+	private final long deadlockDetectionIntervalNanos;
+	private final long failedCheckpoints;
+	private final Distribution waitTimeNanos;
+	private final Distribution rollbackLengths;
+	private final Map<ResourceId, Long> hottestResources;
+
+	public TransactionManagerStats(
+			long started,
+			long committed,
+			long rolledBack,
+			long aborted,
+			long waits,
+			long deadlocks,
+			long deadlockSweeps,
+			long failedDeadlockSweeps,
+			long deadlockDetectionIntervalNanos,
+			long failedCheckpoints,
+			Distribution waitTimeNanos,
+			Distribution rollbackLengths,
+			Map<ResourceId, Long> hottestResources
+	) {
+		this.started = started;
+		this.committed = committed;
+		this.rolledBack = rolledBack;
+		this.aborted = aborted;
+		this.waits = waits;
+		this.deadlocks = deadlocks;
+		this.deadlockSweeps = deadlockSweeps;
+		this.failedDeadlockSweeps = failedDeadlockSweeps;
+		this.deadlockDetectionIntervalNanos = deadlockDetectionIntervalNanos;
+		this.failedCheckpoints = failedCheckpoints;
+		this.waitTimeNanos = waitTimeNanos;
+		this.rollbackLengths = rollbackLengths;
+		this.hottestResources = Collections.unmodifiableMap(hottestResources);
+	}
+
+	public long getStartedTransactions() {
+		return this.started;
+	}
+
+	public long getCommittedTransactions() {
+		return this.committed;
+	}
+
+	public long getRolledBackTransactions() {
+		return this.rolledBack;
+	}
+
+	/**
+	 * @return The number of transactions rolled back
+	 *     after having been aborted by the manager.
+	 */
+	public long getAbortedTransactions() {
+		return this.aborted;
+	}
+
+	/**
+	 * @return The number of times a transaction had to
+	 *     wait for a resource held by another one.
+	 */
+	public long getWaits() {
+		return this.waits;
+	}
+
+	/**
+	 * @return The number of deadlocks broken by aborting
+	 *     a transaction.
+	 */
+	public long getDeadlocks() {
+		return this.deadlocks;
+	}
+
+	/**
+	 * @return The number of periodic sweeps of the
+	 *     wait-for graph for deadlocks performed.
+	 */
+	public long getDeadlockSweeps() {
+		return this.deadlockSweeps;
+	}
+
+	/**
+	 * @return The number of periodic sweeps for
+	 *     deadlocks which have failed, e.g. because
+	 *     the deadlock policy has thrown.
+	 */
+	public long getFailedDeadlockSweeps() {
+		return this.failedDeadlockSweeps;
+	}
+
+	/**
+	 * @return The interval between periodic deadlock
+	 *     sweeps, or 0 if deadlocks are detected by
+	 *     every wait.
+	 */
+	public long getDeadlockDetectionIntervalNanos() {
+		return this.deadlockDetectionIntervalNanos;
+	}
+
+	/**
+	 * @return The number of checkpoints which have
+	 *     failed, after which the log keeps growing
+	 *     until one succeeds.
+	 */
+	public long getFailedCheckpoints() {
+		return this.failedCheckpoints;
+	}
+
+	public Distribution getWaitTimeNanos() {
+		return this.waitTimeNanos;
+	}
+
+	/**
+	 * @return The distribution of the number of
+	 *     operations undone per rollback.
+	 */
+	public Distribution getRollbackLengths() {
+		return this.rollbackLengths;
+	}
+
+	/**
+	 * @return Resources waited for most often, with
+	 *     the number of waits, most contended first.
+	 */
+	public Map<ResourceId, Long> getHottestResources() {
+		return this.hottestResources;
+	}
+
+	@Override
+	public String toString() {
+		return "started=" + this.started + ", committed=" + this.committed +
+				", rolledBack=" + this.rolledBack + ", aborted=" + this.aborted +
+				", waits=" + this.waits + ", deadlocks=" + this.deadlocks +
+				", deadlockSweeps=" + this.deadlockSweeps +
+				", failedDeadlockSweeps=" + this.failedDeadlockSweeps +
+				", deadlockDetectionIntervalNanos=" + this.deadlockDetectionIntervalNanos +
+				", failedCheckpoints=" + this.failedCheckpoints +
+				", waitTimeNanos=[" + this.waitTimeNanos + "]" +
+				", rollbackLengths=[" + this.rollbackLengths + "]" +
+				", hottestResources=" + this.hottestResources;
+	}
+
+}
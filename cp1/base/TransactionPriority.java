@@ -0,0 +1,29 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Konrad Iwanicki (iwanicki@mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * Priority class of a transaction. Waiters of a higher
+ * class are handed a resource before waiters of a lower
+ * one; within a class resources are handed over in the
+ * order of requests.
+ */
+public enum TransactionPriority {
+
+	/**
+	 * Latency sensitive transactions, the default.
+	 */
+	INTERACTIVE,
+
+	/**
+	 * Background transactions, served only when no
+	 * interactive transaction waits for the resource.
+	 */
+	BATCH
+
+}
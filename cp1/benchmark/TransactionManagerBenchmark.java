@@ -0,0 +1,402 @@
+package cp1.benchmark;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.LocalTimeProvider;
+import cp1.base.OperationCodec;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * JMH benchmarks of the transaction manager, built by the `benchmark` Maven profile.
+ *
+ * Every benchmark executes one transaction per invocation on all available processors
+ * and is measured both for throughput and for sampled latency, whose report includes
+ * its percentiles. Transactions aborted as deadlock victims are counted by the
+ * `aborted` secondary result, so the abort ratio is `aborted` over the throughput.
+ *
+ * Usage: `mvn -Pbenchmark -DskipTests package && java -jar target/benchmarks.jar`, with
+ * the usual JMH options, e.g. `-t 4` for the number of threads.
+ *
+ * @author Resul Hangeldiyev
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class TransactionManagerBenchmark {
+
+    /**
+     * Transactions of the calling thread which have been aborted.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+
+        public long aborted;
+
+        private int thread;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams params) {
+            thread = params.getThreadIndex();
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            aborted = 0;
+        }
+    }
+
+    /**
+     * One resource for every thread.
+     */
+    @State(Scope.Benchmark)
+    public static class PrivateResources {
+
+        TransactionManager tm;
+        List<Resource> resources;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) {
+            resources = newResources(params.getThreads());
+            tm = newTM(resources);
+        }
+    }
+
+    /**
+     * Like {@link PrivateResources}, but every commit is written to a write-ahead log and
+     * synced. Group commit should make the throughput grow with the number of threads.
+     */
+    @State(Scope.Benchmark)
+    public static class DurableResources {
+
+        TransactionManager tm;
+        List<Resource> resources;
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) throws IOException {
+            resources = newResources(params.getThreads());
+            directory = Files.createTempDirectory("benchmark-wal");
+            tm = TransactionManagerFactory.newTM(resources, new NanoTimeProvider(),
+                    new TransactionManagerConfig.Builder()
+                            .stateDirectory(directory, new IncrementCodec())
+                            .build());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            tm.shutdown();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * A single resource shared by all threads.
+     */
+    @State(Scope.Benchmark)
+    public static class HotResource {
+
+        TransactionManager tm;
+        ResourceId rid;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            List<Resource> resources = newResources(1);
+            tm = newTM(resources);
+            rid = resources.get(0).getId();
+        }
+    }
+
+    /**
+     * Half as many resources as threads, taken in pairs.
+     */
+    @State(Scope.Benchmark)
+    public static class ResourcePairs {
+
+        TransactionManager tm;
+        List<Resource> resources;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) {
+            resources = newResources(Math.max(2, params.getThreads() / 2));
+            tm = newTM(resources);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RolledBack {
+
+        @Param({"1", "10", "100", "1000"})
+        int length;
+
+        TransactionManager tm;
+        List<Resource> resources;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) {
+            resources = newResources(params.getThreads());
+            tm = newTM(resources);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ResourcePool {
+
+        @Param({"16", "1024", "65536"})
+        int count;
+
+        @Param({"false", "true"})
+        boolean optimistic;
+
+        TransactionManager tm;
+        List<Resource> resources;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            resources = newResources(count);
+            tm = optimistic
+                    ? TransactionManagerFactory.newOptimisticTM(resources, new NanoTimeProvider())
+                    : newTM(resources);
+        }
+    }
+
+    private interface Body {
+        void run(TransactionManager tm) throws Exception;
+    }
+
+    /**
+     * Every thread works on a resource of its own.
+     */
+    @Benchmark
+    public void uncontended(PrivateResources state, Outcomes outcomes) throws Exception {
+        ResourceId rid = state.resources.get(outcomes.thread).getId();
+        transaction(state.tm, outcomes, tm -> tm.operateOnResourceInCurrentTransaction(rid, IncrementOp.INSTANCE));
+    }
+
+    @Benchmark
+    public void durableCommits(DurableResources state, Outcomes outcomes) throws Exception {
+        ResourceId rid = state.resources.get(outcomes.thread).getId();
+        transaction(state.tm, outcomes, tm -> tm.operateOnResourceInCurrentTransaction(rid, IncrementOp.INSTANCE));
+    }
+
+    @Benchmark
+    public void hotResource(HotResource state, Outcomes outcomes) throws Exception {
+        transaction(state.tm, outcomes, tm -> tm.operateOnResourceInCurrentTransaction(state.rid, IncrementOp.INSTANCE));
+    }
+
+    /**
+     * Threads take pairs of resources in opposite orders, so most waits close a cycle
+     * and exercise deadlock detection and aborts.
+     */
+    @Benchmark
+    public void deadlockCycles(ResourcePairs state, Outcomes outcomes) throws Exception {
+        List<Resource> resources = state.resources;
+        int first = ThreadLocalRandom.current().nextInt(resources.size());
+        int second = (first + 1) % resources.size();
+        if (outcomes.thread % 2 == 1) {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+        ResourceId firstId = resources.get(first).getId();
+        ResourceId secondId = resources.get(second).getId();
+        transaction(state.tm, outcomes, tm -> {
+            tm.operateOnResourceInCurrentTransaction(firstId, IncrementOp.INSTANCE);
+            Thread.yield();
+            tm.operateOnResourceInCurrentTransaction(secondId, IncrementOp.INSTANCE);
+        });
+    }
+
+    /**
+     * Transactions of the given length on private resources, always rolled back.
+     */
+    @Benchmark
+    public void rollback(RolledBack state, Outcomes outcomes) throws Exception {
+        TransactionManager tm = state.tm;
+        ResourceId rid = state.resources.get(outcomes.thread).getId();
+        tm.startTransaction();
+        try {
+            for (int i = 0; i < state.length; i++) {
+                tm.operateOnResourceInCurrentTransaction(rid, IncrementOp.INSTANCE);
+            }
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+    }
+
+    /**
+     * Transactions of four operations on resources chosen uniformly from a pool of the
+     * given size.
+     */
+    @Benchmark
+    public void resourceCount(ResourcePool state, Outcomes outcomes) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        transaction(state.tm, outcomes, tm -> {
+            for (int i = 0; i < 4; i++) {
+                tm.operateOnResourceInCurrentTransaction(
+                        state.resources.get(random.nextInt(state.count)).getId(), IncrementOp.INSTANCE);
+            }
+        });
+    }
+
+    private static void transaction(TransactionManager tm, Outcomes outcomes, Body body) throws Exception {
+        try {
+            tm.startTransaction();
+            body.run(tm);
+            tm.commitCurrentTransaction();
+        } catch (ActiveTransactionAborted e) {
+            // The manager interrupts the thread of an aborted transaction; the next
+            // transaction must not see it as interrupted.
+            Thread.interrupted();
+            outcomes.aborted++;
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+    }
+
+    private static TransactionManager newTM(List<Resource> resources) {
+        return TransactionManagerFactory.newTM(resources, new NanoTimeProvider());
+    }
+
+    private static List<Resource> newResources(int count) {
+        List<Resource> resources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            resources.add(new CounterResource(new IntResourceId(i)));
+        }
+        return resources;
+    }
+
+    // ---------------------------------------------------------
+    // -                                                       -
+    // -     Implementations of the base interfaces            -
+    // -                                                       -
+    // ---------------------------------------------------------
+
+    private static final class NanoTimeProvider implements LocalTimeProvider {
+        @Override
+        public long getTime() {
+            return System.nanoTime();
+        }
+    }
+
+    private static final class IntResourceId implements ResourceId {
+        private final int value;
+
+        private IntResourceId(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(ResourceId other) {
+            return Integer.compare(this.value, ((IntResourceId) other).value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IntResourceId && ((IntResourceId) obj).value == this.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "R" + this.value;
+        }
+    }
+
+    private static final class CounterResource extends Resource {
+        private long value = 0;
+
+        private CounterResource(ResourceId id) {
+            super(id);
+        }
+
+        @Override
+        public void saveState(DataOutput out) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public void restoreState(DataInput in) throws IOException {
+            value = in.readLong();
+        }
+    }
+
+    private static final class IncrementCodec implements OperationCodec {
+        @Override
+        public void writeResourceId(ResourceId rid, DataOutput out) throws IOException {
+            out.writeInt(((IntResourceId) rid).value);
+        }
+
+        @Override
+        public ResourceId readResourceId(DataInput in) throws IOException {
+            return new IntResourceId(in.readInt());
+        }
+
+        @Override
+        public void writeOperation(ResourceOperation operation, DataOutput out) {
+        }
+
+        @Override
+        public ResourceOperation readOperation(DataInput in) {
+            return IncrementOp.INSTANCE;
+        }
+    }
+
+    private static final class IncrementOp extends ResourceOperation {
+        private static final IncrementOp INSTANCE = new IncrementOp();
+
+        @Override
+        public void execute(Resource r) {
+            ((CounterResource) r).value++;
+        }
+
+        @Override
+        public void undo(Resource r) {
+            ((CounterResource) r).value--;
+        }
+    }
+}
@@ -1,124 +1,945 @@
 package cp1.solution;
 
-import cp1.base.Resource;
 import cp1.base.ResourceId;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Using resource allocation graph, we can detect deadlocks and fix it aborting latest
- * transaction. Also, `AllocationGraph` provides corresponding method to finish a transaction
- * freeing all the assets it had a disposition with.
+ * Using resource allocation graph, we can detect deadlocks and fix it aborting a victim
+ * chosen by the `DeadlockPolicy`, or let the policy prevent them instead. Also,
+ * `AllocationGraph` provides corresponding method to finish a transaction freeing all
+ * the assets it had a disposition with.
  *
- * Forementioned methods are thread safe.
+ * Forementioned methods are thread safe. Taking a free resource, or joining other shared
+ * holders of a resource nobody waits for, is a single CAS on the owners table and takes
+ * no lock at all. Waiting queues and hand-offs of a resource are guarded by a lock stripe
+ * chosen by the resource id, so transactions working on disjoint resources do not
+ * contend. Waiters are served by priority class, see `WaitQueue`. The graph knows nothing
+ * about the set of resources: a resource has an entry in the owners table only while it
+ * is held and a queue only while somebody waits for it, so idle resources, however many,
+ * cost nothing here.
+ *
+ * The lock table is split into shards by resource id, each with its owners, queues,
+ * stripes and detection lock of its own. Every transaction remembers the shard it has
+ * taken or waited for resources in, or that it has used several. A cycle through a
+ * transaction which has only used one shard and visits only such transactions of the
+ * same shard is searched for under that shard's detection lock; only a search reaching a
+ * transaction of other shards is repeated holding the detection locks of all of them.
+ *
+ * Alternatively, waits only record what they wait for and `sweepDeadlocks`, run
+ * periodically, breaks the cycles of a snapshot of the whole wait-for graph at once.
+ *
+ * Resources may belong to groups, see `LockMode`. A group is just another node of the
+ * graph, so waiting for a group and cycles through groups need no special treatment. A
+ * transaction holding a group in shared or exclusive mode takes its members without
+ * touching the graph at all, which saves bulk transactions a lock table entry and a CAS
+ * per member. A transaction which has taken more members of a group than the escalation
+ * threshold one by one has them replaced with a single grant of the group, which bounds
+ * the size of the owners table and the cost of releasing a large transaction. All the
+ * locks are `java.util.concurrent` ones rather than monitors, so waiting on them never
+ * pins the carrier of a virtual thread.
  *
  * @author Resul Hangeldiyev
  */
 public class AllocationGraph {
 
-    enum Node {
-        NOT_VISITED,
-        DONE,
-        IN_STACK
+    private static final int STRIPES = 64;
+    private static final int ANY_SHARD = -1;
+    private static final int RELEASE_BATCH = 32;
+    private static final int ACQUIRE_BATCH = 32;
+
+    private final Shard[] shards;
+    private final ConcurrentMap<ResourceId, ResourceId> groupOf;
+    private final Set<ResourceId> groups;
+    private final Metrics metrics;
+    private final DeadlockPolicy policy;
+    private final int maxQueueDepth;
+    private final int escalationThreshold;
+    private final boolean detectOnWait;
+    private final Detector globalDetector;
+
+    public AllocationGraph(Metrics metrics) {
+        this(metrics, StandardDeadlockPolicy.DETECT_ABORT_YOUNGEST);
+    }
+
+    public AllocationGraph(Metrics metrics, DeadlockPolicy policy) {
+        this(metrics, policy, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxQueueDepth maximum number of transactions of one priority class waiting
+     *                      for a resource.
+     */
+    public AllocationGraph(Metrics metrics, DeadlockPolicy policy, int maxQueueDepth) {
+        this(metrics, policy, maxQueueDepth, Integer.MAX_VALUE);
     }
 
-    private final ConcurrentMap<Transaction, ResourceId> resourceAllocationGraph;
-    private final ConcurrentMap<ResourceId, Queue<Transaction>> resourceWaitingQueue;
-    private final ConcurrentMap<ResourceId, Transaction> resourceOwners;
+    /**
+     * @param escalationThreshold number of members of a group a transaction takes one by
+     *                            one before the graph tries to grant it the whole group.
+     */
+    public AllocationGraph(Metrics metrics, DeadlockPolicy policy, int maxQueueDepth, int escalationThreshold) {
+        this(metrics, policy, maxQueueDepth, escalationThreshold, 1);
+    }
+
+    /**
+     * @param shards number of shards the lock table is split into.
+     */
+    public AllocationGraph(Metrics metrics, DeadlockPolicy policy, int maxQueueDepth, int escalationThreshold,
+                           int shards) {
+        this(metrics, policy, maxQueueDepth, escalationThreshold, shards, true);
+    }
 
-    public AllocationGraph(Collection<Resource> resources) {
-        this.resourceAllocationGraph = new ConcurrentHashMap<>();
-        this.resourceWaitingQueue = new ConcurrentHashMap<>();
-        this.resourceOwners = new ConcurrentHashMap<>();
-        for (Resource resource : resources) {
-            resourceWaitingQueue.putIfAbsent(resource.getId(), new ConcurrentLinkedQueue<>());
+    /**
+     * @param detectOnWait whether every wait searches for cycles through the waiter, or
+     *                     cycles are only broken by {@link #sweepDeadlocks}.
+     */
+    public AllocationGraph(Metrics metrics, DeadlockPolicy policy, int maxQueueDepth, int escalationThreshold,
+                           int shards, boolean detectOnWait) {
+        this.detectOnWait = detectOnWait;
+        this.metrics = metrics;
+        this.policy = policy;
+        this.maxQueueDepth = maxQueueDepth;
+        this.escalationThreshold = escalationThreshold;
+        this.groupOf = new ConcurrentHashMap<>();
+        this.groups = ConcurrentHashMap.newKeySet();
+        this.globalDetector = new Detector(ANY_SHARD, shards + 1);
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i, shards + 1);
+        }
+    }
+
+    /**
+     * Part of the lock table holding the resources whose ids hash to it.
+     */
+    private final class Shard {
+
+        private final int index;
+        private final ConcurrentMap<ResourceId, WaitQueue> waitingQueues;
+        private final ConcurrentMap<ResourceId, Ownership> owners;
+        private final Lock[] stripes;
+        private final Lock detectionLock;
+        private final Detector detector;
+
+        Shard(int index, int detectors) {
+            this.index = index;
+            this.waitingQueues = new ConcurrentHashMap<>();
+            this.owners = new ConcurrentHashMap<>();
+            this.stripes = new Lock[STRIPES];
+            this.detectionLock = new ReentrantLock();
+            this.detector = new Detector(index, detectors);
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ReentrantLock();
+            }
+        }
+
+        Lock stripeFor(ResourceId rid) {
+            return stripes[stripeIndex(rid)];
+        }
+
+        int stripeIndex(ResourceId rid) {
+            return spread(rid) & (STRIPES - 1);
+        }
+    }
+
+    /**
+     * Makes `member` a member of `group`. Must be called before any transaction takes
+     * `member`, as holders which have taken it without the group's intention mode would
+     * not conflict with holders of the group.
+     */
+    public void joinGroup(ResourceId member, ResourceId group) {
+        groups.add(group);
+        groupOf.put(member, group);
+    }
+
+    public void leaveGroup(ResourceId member) {
+        groupOf.remove(member);
+    }
+
+    public boolean isGroup(ResourceId rid) {
+        return groups.contains(rid);
+    }
+
+    /**
+     * Takes `rid` in `mode` the hierarchical way: a member of a group held by `transaction`
+     * in a mode covering `mode` is granted right away, otherwise the group is taken in the
+     * intention mode first and the resource itself afterwards. Past the escalation
+     * threshold the group is taken instead, if that does not require waiting.
+     *
+     * @return whether `transaction` has to wait for its semaphore, after which it should
+     * call this method again.
+     */
+    public boolean acquire(Transaction transaction, ResourceId rid, LockMode mode) {
+        if (transaction.wasAccessAcquiredForResource(rid, mode)) {
+            return false;
+        }
+        ResourceId group = groupOf.get(rid);
+        if (group != null) {
+            if (takeCovered(transaction, rid, group, mode)) {
+                return false;
+            }
+            LockMode intention = mode.intention();
+            if (!transaction.wasAccessAcquiredForResource(group, intention)
+                    && addEdgeIfNecessary(transaction, group, intention)) {
+                return true;
+            }
+        }
+        return addEdgeIfNecessary(transaction, rid, mode);
+    }
+
+    /**
+     * Grants member `rid` to `transaction` if it holds `group` in a mode covering `mode`,
+     * or escalates to such a mode.
+     *
+     * @return whether the member has been granted.
+     */
+    private boolean takeCovered(Transaction transaction, ResourceId rid, ResourceId group, LockMode mode) {
+        if (!transaction.wasAccessAcquiredForResource(group, mode)
+                && (transaction.getMemberGrants(group) < escalationThreshold
+                || !escalate(transaction, group, mode))) {
+            return false;
+        }
+        grantCovered(transaction, rid, mode);
+        return true;
+    }
+
+    /**
+     * Replaces the grants of members of `group` `transaction` holds in their own right with
+     * a grant of the group covering them and `mode`. The group is only taken if it is
+     * free of conflicting holders, as waiting for it while holding its members invites
+     * deadlocks. Otherwise the transaction goes on taking members one by one and tries
+     * again past another threshold's worth of them.
+     *
+     * @return whether the group has been granted.
+     */
+    private boolean escalate(Transaction transaction, ResourceId group, LockMode mode) {
+        transaction.resetMemberGrants(group);
+        LockMode intended = transaction.getAcquiredMode(group).join(mode.intention());
+        LockMode coarse = intended == LockMode.INTENTION_SHARED ? LockMode.SHARED : LockMode.EXCLUSIVE;
+        if (!tryGrantNow(transaction, group, coarse)) {
+            return false;
+        }
+        // The members stay in the transaction's set, which records what it has accessed.
+        ResourceSet acquiredResources = transaction.getAcquiredResources();
+        for (int i = 0; i < acquiredResources.size(); i++) {
+            ResourceId rid = acquiredResources.idAt(i);
+            if (group.equals(groupOf.get(rid))) {
+                releaseIfHeld(transaction, rid);
+            }
         }
+        return true;
     }
 
-    public synchronized boolean addEdgeIfNecessary(Transaction from, ResourceId rid) {
-        if (resourceOwners.containsKey(rid)) {
-            resourceAllocationGraph.putIfAbsent(from, rid);
-            resourceWaitingQueue.get(rid).add(from);
+    /**
+     * Records a member covered by its group as acquired by the transaction only, so it is
+     * known which resources the transaction has accessed.
+     */
+    private static void grantCovered(Transaction transaction, ResourceId rid, LockMode mode) {
+        LockMode held = transaction.getAcquiredMode(rid);
+        transaction.newAcquiredResource(rid, held == null ? mode : held.join(mode));
+    }
+
+    /**
+     * Grants `rid` to `from` in the given mode if possible, otherwise enqueues `from` as
+     * a waiter. A transaction already holding the resource in shared mode and asking for
+     * exclusive access is an upgrade and goes to the front of the queue. The resource is
+     * not looked up in the hierarchy, see {@link #acquire}.
+     *
+     * If as many transactions of the same priority as allowed already wait for the
+     * resource, `from` is aborted instead of being queued. If the policy prevents
+     * deadlocks rather than detecting them, it may abort `from` as well. An aborted `from`
+     * is woken up right away.
+     *
+     * @return whether `from` has to wait for its semaphore.
+     */
+    public boolean addEdgeIfNecessary(Transaction from, ResourceId rid, LockMode mode) {
+        LockMode held = from.getAcquiredMode(rid);
+        boolean upgrade = held != null;
+        if (upgrade) {
+            mode = held.join(mode);
+        }
+        Shard shard = shardOf(rid);
+        if (!shard.waitingQueues.containsKey(rid) && tryGrant(shard, from, rid, mode)) {
+            return false;
+        }
+        Lock stripe = shard.stripeFor(rid);
+        stripe.lock();
+        try {
+            WaitQueue queue = shard.waitingQueues.get(rid);
+            if ((upgrade || queue == null) && tryGrant(shard, from, rid, mode)) {
+                return false;
+            }
+            if (!upgrade && queue != null && !queue.hasRoomFor(from)) {
+                from.abort();
+                from.wakeUp();
+                return true;
+            }
+            if (!policy.detectsDeadlocks() && !admit(from, shard, rid, queue, upgrade)) {
+                from.abort();
+                metrics.deadlockResolved();
+                from.wakeUp();
+                return true;
+            }
+            from.setRequestedMode(mode);
+            from.setWaitingFor(rid);
+            from.usedShard(shard.index);
+            if (queue == null) {
+                queue = new WaitQueue(maxQueueDepth);
+                shard.waitingQueues.put(rid, queue);
+            }
+            if (upgrade) {
+                queue.addFirst(from);
+            } else {
+                queue.addLast(from);
+            }
+        } finally {
+            stripe.unlock();
+        }
+        metrics.waitStarted(rid);
+        if (policy.detectsDeadlocks() && detectOnWait) {
             detectCycle(from);
+        }
+        return true;
+    }
+
+    /**
+     * Lets the policy judge every transaction `requester` would wait for: the other
+     * holders of the resource and, unless it is an upgrade, everybody queued ahead of it.
+     * Waiters `requester` is queued ahead of, those of lower priority classes or all of
+     * them for an upgrade, would wait for it from then on, so each of them is judged as a
+     * requester against it too; otherwise the policy could be bypassed by a wait edge it
+     * has never seen. Transactions the policy chooses to abort are aborted only once it
+     * is known that the requester may wait. Must be called holding the resource's stripe.
+     *
+     * @return whether `requester` may wait.
+     */
+    private boolean admit(Transaction requester, Shard shard, ResourceId rid, WaitQueue queue, boolean upgrade) {
+        List<Transaction> blockers = new ArrayList<>();
+        Ownership owners = shard.owners.get(rid);
+        for (int i = 0; owners != null && i < owners.size(); i++) {
+            if (owners.holder(i) != requester && !owners.holder(i).isAborted()) {
+                blockers.add(owners.holder(i));
+            }
+        }
+        List<Transaction> passed = new ArrayList<>();
+        if (queue != null) {
+            if (upgrade) {
+                queue.collectAll(passed);
+            } else {
+                queue.collectAhead(requester.getPriority(), blockers);
+                queue.collectBehind(requester.getPriority(), passed);
+            }
+        }
+        for (Transaction blocker : blockers) {
+            if (judge(requester, blocker) == DeadlockPolicy.Resolution.ABORT_REQUESTER) {
+                return false;
+            }
+        }
+        for (Transaction waiter : passed) {
+            if (judge(waiter, requester) == DeadlockPolicy.Resolution.ABORT_BLOCKER) {
+                return false;
+            }
+        }
+        for (Transaction blocker : blockers) {
+            if (judge(requester, blocker) == DeadlockPolicy.Resolution.ABORT_BLOCKER) {
+                wound(blocker);
+            }
+        }
+        for (Transaction waiter : passed) {
+            if (judge(waiter, requester) == DeadlockPolicy.Resolution.ABORT_REQUESTER) {
+                wound(waiter);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The policy's verdict on `requester` waiting for `blocker`, except that an internal
+     * transaction is never aborted: the other one is aborted instead, which prevents a
+     * cycle just as well. Internal transactions take their resources in the order of ids,
+     * so they may safely wait for each other.
+     */
+    private DeadlockPolicy.Resolution judge(Transaction requester, Transaction blocker) {
+        if (requester.isInternal() && blocker.isInternal()) {
+            return DeadlockPolicy.Resolution.WAIT;
+        }
+        DeadlockPolicy.Resolution resolution = policy.onConflict(requester, blocker);
+        if (resolution == DeadlockPolicy.Resolution.ABORT_REQUESTER && requester.isInternal()) {
+            return DeadlockPolicy.Resolution.ABORT_BLOCKER;
+        }
+        if (resolution == DeadlockPolicy.Resolution.ABORT_BLOCKER && blocker.isInternal()) {
+            return DeadlockPolicy.Resolution.ABORT_REQUESTER;
+        }
+        return resolution;
+    }
+
+    /**
+     * Lets the policy choose a victim among the transactions of `cycle` other than
+     * internal ones. Internal transactions take their resources in the order of ids, so
+     * no cycle consists of them only.
+     */
+    private Transaction chooseVictim(List<Transaction> cycle) {
+        List<Transaction> candidates = cycle;
+        for (Transaction transaction : cycle) {
+            if (transaction.isInternal()) {
+                candidates = new ArrayList<>(cycle);
+                candidates.removeIf(Transaction::isInternal);
+                break;
+            }
+        }
+        return candidates.get(policy.chooseVictim(candidates));
+    }
+
+    /**
+     * Aborts a transaction chosen by the policy. A prepared one cannot be aborted any
+     * more, so it is neither woken up nor counted, and the requester waits for it.
+     */
+    private void wound(Transaction transaction) {
+        transaction.abort();
+        if (transaction.isAborted()) {
+            metrics.deadlockResolved();
+            transaction.wakeUp();
+        }
+    }
+
+    /**
+     * Acquires resources of `rids`, starting at index `from`, like {@link #acquire} until
+     * one of them is held by someone else, in which case `transaction` is queued for it.
+     * Transactions acquiring their resources in the same canonical order cannot deadlock
+     * with each other. Runs of resources outside groups are granted in batches of up to
+     * `ACQUIRE_BATCH`, each under a single hold of all the stripes guarding it.
+     *
+     * @return index of the resource `transaction` has to wait for, to be passed as `from`
+     * once it has been woken up, or `rids.size()` if all of them have been granted.
+     */
+    public int acquireAll(Transaction transaction, List<ResourceId> rids, int from, LockMode mode) {
+        int i = from;
+        while (i < rids.size()) {
+            if (groupOf.containsKey(rids.get(i))) {
+                if (acquire(transaction, rids.get(i), mode)) {
+                    return i;
+                }
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < rids.size() && end - i < ACQUIRE_BATCH && !groupOf.containsKey(rids.get(end))) {
+                end++;
+            }
+            i = grantBatch(transaction, rids, i, end, mode);
+            if (i < end) {
+                if (addEdgeIfNecessary(transaction, rids.get(i), mode)) {
+                    return i;
+                }
+                i++;
+            }
+        }
+        return rids.size();
+    }
+
+    /**
+     * Grants resources of `rids` from index `from` to `to` in order, as long as they are
+     * free of conflicting holders and waiters. The stripes of all of them are held at
+     * once, taken in the order of shards and stripes so that concurrent batches cannot
+     * deadlock on them, and the batch costs one lock round trip per stripe rather than
+     * per resource.
+     *
+     * @return index of the first resource which has not been granted, or `to`.
+     */
+    private int grantBatch(Transaction transaction, List<ResourceId> rids, int from, int to, LockMode mode) {
+        int[] keys = new int[to - from];
+        for (int i = from; i < to; i++) {
+            ResourceId rid = rids.get(i);
+            Shard shard = shardOf(rid);
+            keys[i - from] = shard.index * STRIPES + shard.stripeIndex(rid);
+        }
+        int[] held = keys.clone();
+        Arrays.sort(held);
+        int count = 0;
+        for (int key : held) {
+            if (count == 0 || held[count - 1] != key) {
+                held[count++] = key;
+            }
+        }
+        for (int j = 0; j < count; j++) {
+            shards[held[j] / STRIPES].stripes[held[j] % STRIPES].lock();
+        }
+        try {
+            for (int i = from; i < to; i++) {
+                ResourceId rid = rids.get(i);
+                if (transaction.wasAccessAcquiredForResource(rid, mode)) {
+                    continue;
+                }
+                Shard shard = shards[keys[i - from] / STRIPES];
+                LockMode acquired = transaction.getAcquiredMode(rid);
+                if (acquired == null && shard.waitingQueues.containsKey(rid)) {
+                    return i;
+                }
+                if (!tryGrant(shard, transaction, rid, acquired == null ? mode : acquired.join(mode))) {
+                    return i;
+                }
+            }
+            return to;
+        } finally {
+            for (int j = count - 1; j >= 0; j--) {
+                shards[held[j] / STRIPES].stripes[held[j] % STRIPES].unlock();
+            }
+        }
+    }
+
+    /**
+     * Grants `rid` to `from`, the hierarchical way like {@link #acquire}, only if that is
+     * possible without waiting. The group may be left held in the intention mode even if
+     * the resource itself is not granted.
+     *
+     * @return whether the resource has been granted.
+     */
+    public boolean tryAcquire(Transaction from, ResourceId rid, LockMode mode) {
+        if (from.wasAccessAcquiredForResource(rid, mode)) {
             return true;
-        } else {
-            resourceOwners.put(rid, from);
-            from.newAcquiredResource(rid);
+        }
+        ResourceId group = groupOf.get(rid);
+        if (group != null) {
+            if (takeCovered(from, rid, group, mode)) {
+                return true;
+            }
+            LockMode intention = mode.intention();
+            if (!from.wasAccessAcquiredForResource(group, intention) && !tryGrantNow(from, group, intention)) {
+                return false;
+            }
+        }
+        return tryGrantNow(from, rid, mode);
+    }
+
+    private boolean tryGrantNow(Transaction from, ResourceId rid, LockMode mode) {
+        LockMode held = from.getAcquiredMode(rid);
+        boolean upgrade = held != null;
+        if (upgrade) {
+            mode = held.join(mode);
+        }
+        Shard shard = shardOf(rid);
+        if (!shard.waitingQueues.containsKey(rid) && tryGrant(shard, from, rid, mode)) {
+            return true;
+        }
+        Lock stripe = shard.stripeFor(rid);
+        stripe.lock();
+        try {
+            return (upgrade || !shard.waitingQueues.containsKey(rid)) && tryGrant(shard, from, rid, mode);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Takes a waiting transaction out of the queue it waits in, e.g. when it gave up
+     * waiting.
+     *
+     * @return `false` if the resource has already been handed to `node`.
+     */
+    public boolean cancelWait(Transaction node) {
+        ResourceId waitingFor = node.getWaitingFor();
+        if (waitingFor == null) {
             return false;
         }
+        Shard shard = shardOf(waitingFor);
+        List<Transaction> woken = new ArrayList<>();
+        Lock stripe = shard.stripeFor(waitingFor);
+        stripe.lock();
+        try {
+            WaitQueue queue = shard.waitingQueues.get(waitingFor);
+            if (queue == null || !queue.remove(node)) {
+                return false;
+            }
+            node.setWaitingFor(null);
+            grantWaiters(shard, waitingFor, woken);
+        } finally {
+            stripe.unlock();
+        }
+        wakeUp(woken);
+        return true;
+    }
+
+    /**
+     * Releases everything `node` holds. Members it has taken only through their group have
+     * no entry in the owners table and are skipped without taking their stripes.
+     */
+    public void removeNode(Transaction node) {
+        cancelWait(node);
+        releaseFrom(node, 0);
     }
 
-    public synchronized void removeNode(Transaction node) {
-        if (resourceAllocationGraph.containsKey(node)) {
-            resourceWaitingQueue.get(resourceAllocationGraph.get(node)).remove(node);
-            resourceAllocationGraph.remove(node);
+    /**
+     * Releases a single resource held by `node` ahead of the others, handing it to its
+     * waiters. Resources of a transaction may be released concurrently, but `node` must
+     * not be waiting.
+     */
+    public void releaseResource(Transaction node, ResourceId rid) {
+        releaseIfHeld(node, rid);
+    }
+
+    /**
+     * Releases the resources `node` has acquired after the first `from` ones in its set and
+     * drops them from the set, e.g. on a rollback to a savepoint. Resources acquired
+     * earlier stay held in their current mode. `node` must not be waiting.
+     */
+    public void releaseSince(Transaction node, int from) {
+        releaseFrom(node, from);
+        node.getAcquiredResources().truncate(from);
+    }
+
+    /**
+     * Releases the resources `node` holds from index `from` of its set on. They are sorted
+     * by stripe, so each stripe is taken once for all the resources it guards, but for no
+     * more than `RELEASE_BATCH` of them at a time, which bounds how long a large
+     * transaction keeps others off a stripe. Successors are woken up only after the
+     * stripe has been unlocked.
+     */
+    private void releaseFrom(Transaction node, int from) {
+        ResourceSet acquiredResources = node.getAcquiredResources();
+        long[] order = new long[acquiredResources.size() - from];
+        int count = 0;
+        for (int i = from; i < acquiredResources.size(); i++) {
+            ResourceId rid = acquiredResources.idAt(i);
+            Shard shard = shardOf(rid);
+            Ownership owners = shard.owners.get(rid);
+            if (owners != null && owners.contains(node)) {
+                long stripe = (long) shard.index * STRIPES + shard.stripeIndex(rid);
+                order[count++] = stripe << 32 | i;
+            }
         }
-        for (ResourceId rid: node.getAcquiredResources()) {
-            if (resourceWaitingQueue.get(rid).isEmpty()) {
-                resourceOwners.remove(rid);
-                continue;
+        Arrays.sort(order, 0, count);
+        List<Transaction> woken = new ArrayList<>();
+        for (int j = 0; j < count; ) {
+            int key = (int) (order[j] >>> 32);
+            Shard shard = shards[key / STRIPES];
+            Lock stripe = shard.stripes[key % STRIPES];
+            int end = Math.min(count, j + RELEASE_BATCH);
+            stripe.lock();
+            try {
+                for (; j < end && (int) (order[j] >>> 32) == key; j++) {
+                    ResourceId rid = acquiredResources.idAt((int) order[j]);
+                    release(shard, node, rid);
+                    grantWaiters(shard, rid, woken);
+                }
+            } finally {
+                stripe.unlock();
             }
-            Transaction next = resourceWaitingQueue.get(rid).remove();
-            resourceOwners.replace(rid, next);
-            resourceAllocationGraph.remove(next);
-            next.newAcquiredResource(rid);
-            next.getSemaphore().release();
+            wakeUp(woken);
         }
     }
 
-    private void detectCycle(Transaction start) {
-        Stack<Transaction> stack = new Stack<>();
-        Map<Transaction, Node> visited = new HashMap<>();
-        for (Transaction transaction : resourceAllocationGraph.keySet()) {
-            visited.put(transaction, Node.NOT_VISITED);
+    private static void wakeUp(List<Transaction> woken) {
+        for (Transaction transaction : woken) {
+            transaction.wakeUp();
+        }
+        woken.clear();
+    }
+
+    private void releaseIfHeld(Transaction node, ResourceId rid) {
+        Shard shard = shardOf(rid);
+        Ownership owners = shard.owners.get(rid);
+        if (owners == null || !owners.contains(node)) {
+            return;
+        }
+        List<Transaction> woken = new ArrayList<>();
+        Lock stripe = shard.stripeFor(rid);
+        stripe.lock();
+        try {
+            release(shard, node, rid);
+            grantWaiters(shard, rid, woken);
+        } finally {
+            stripe.unlock();
+        }
+        wakeUp(woken);
+    }
+
+    private boolean tryGrant(Shard shard, Transaction transaction, ResourceId rid, LockMode mode) {
+        ConcurrentMap<ResourceId, Ownership> owners = shard.owners;
+        while (true) {
+            Ownership current = owners.get(rid);
+            if (current == null) {
+                if (owners.putIfAbsent(rid, Ownership.of(transaction, mode)) == null) {
+                    break;
+                }
+            } else if (!current.allows(transaction, mode)) {
+                return false;
+            } else if (owners.replace(rid, current, current.with(transaction, mode))) {
+                break;
+            }
+        }
+        transaction.usedShard(shard.index);
+        if (escalationThreshold < Integer.MAX_VALUE && transaction.getAcquiredMode(rid) == null) {
+            ResourceId group = groupOf.get(rid);
+            if (group != null) {
+                transaction.memberGranted(group);
+            }
+        }
+        transaction.newAcquiredResource(rid, mode);
+        return true;
+    }
+
+    private void release(Shard shard, Transaction transaction, ResourceId rid) {
+        ConcurrentMap<ResourceId, Ownership> owners = shard.owners;
+        while (true) {
+            Ownership current = owners.get(rid);
+            Ownership remaining = current.without(transaction);
+            if (remaining == null
+                    ? owners.remove(rid, current)
+                    : owners.replace(rid, current, remaining)) {
+                return;
+            }
         }
-        dfs(start, stack, visited);
     }
 
-    private void dfs(Transaction start, Stack<Transaction> stack, Map<Transaction, Node> visited) {
-        stack.push(start);
-        visited.put(start, Node.IN_STACK);
-        ResourceId ridAdj = resourceAllocationGraph.get(start);
-        Transaction adj;
-        if (ridAdj == null || ((adj = resourceOwners.get(ridAdj)).isAborted())) {
-            visited.put(stack.pop(), Node.DONE);
+    /**
+     * Hands the resource to waiters in the order of its queue for as long as they are
+     * compatible with the current holders, and drops the queue once it is empty. Must be
+     * called holding the resource's stripe; the new holders are collected in `woken`, to
+     * be woken up once it has been unlocked.
+     */
+    private void grantWaiters(Shard shard, ResourceId rid, List<Transaction> woken) {
+        WaitQueue queue = shard.waitingQueues.get(rid);
+        if (queue == null) {
             return;
         }
-        if (visited.get(adj) == Node.IN_STACK) {
-            handleCycle(stack, adj);
-        } else if (visited.get(adj) == Node.NOT_VISITED) {
-            dfs(adj, stack, visited);
+        Transaction next;
+        while ((next = queue.peekFirst()) != null && tryGrant(shard, next, rid, next.getRequestedMode())) {
+            queue.remove(next);
+            // `tryGrant` has already recorded the resource as acquired, so a concurrent
+            // `removeNode(next)` that no longer sees the edge cannot miss it.
+            next.setWaitingFor(null);
+            woken.add(next);
+        }
+        if (queue.isEmpty()) {
+            shard.waitingQueues.remove(rid);
+        }
+    }
+
+    private static int spread(ResourceId rid) {
+        int hash = rid.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private Shard shardOf(ResourceId rid) {
+        return shards[shardIndex(rid, shards.length)];
+    }
+
+    /**
+     * Stripes take the low bits of the spread hash, shards the bits above them.
+     *
+     * @return index of the shard holding `rid` in a lock table of `shards` shards.
+     */
+    public static int shardIndex(ResourceId rid, int shards) {
+        return ((spread(rid) >>> 6) & Integer.MAX_VALUE) % shards;
+    }
+
+    /**
+     * Collects an edge from every waiting transaction to every other holder of the
+     * resource it waits for.
+     */
+    public void collectWaitForEdges(List<WaitForEdge> into) {
+        snapshot().exportEdges(into);
+    }
+
+    /**
+     * Breaks every deadlock among the transactions waiting right now, aborting the victim
+     * the policy chooses from a cycle of every strongly connected component of the
+     * wait-for graph. A component may hold several cycles, so the search is repeated
+     * without the victims until none is left. Meant to be run periodically by a single
+     * thread when waits do not search for cycles themselves.
+     *
+     * @return number of transactions aborted.
+     */
+    public int sweepDeadlocks() {
+        WaitForGraph graph = snapshot();
+        int victims = 0;
+        List<List<Transaction>> components;
+        while (!(components = graph.cyclicComponents()).isEmpty()) {
+            for (List<Transaction> component : components) {
+                if (!graph.isCurrent(component)) {
+                    // Left to the next sweep.
+                    for (Transaction transaction : component) {
+                        graph.remove(transaction);
+                    }
+                    continue;
+                }
+                List<Transaction> cycle = graph.cycleWithin(component);
+                Transaction victim = chooseVictim(cycle);
+                graph.remove(victim);
+                victim.abort();
+                metrics.deadlockResolved();
+                victim.wakeUp();
+                victims++;
+            }
+        }
+        metrics.deadlockSweepFinished();
+        return victims;
+    }
+
+    /**
+     * Records an edge from every waiting transaction to every other holder of the
+     * resource it waits for. Queues are visited one at a time, so the edges of different
+     * resources may come from different moments.
+     */
+    private WaitForGraph snapshot() {
+        WaitForGraph graph = new WaitForGraph();
+        List<Transaction> waiters = new ArrayList<>();
+        for (Shard shard : shards) {
+            for (ResourceId rid : shard.waitingQueues.keySet()) {
+                Lock stripe = shard.stripeFor(rid);
+                stripe.lock();
+                try {
+                    WaitQueue queue = shard.waitingQueues.get(rid);
+                    Ownership owners = shard.owners.get(rid);
+                    if (queue == null || owners == null) {
+                        continue;
+                    }
+                    waiters.clear();
+                    queue.collectAll(waiters);
+                    for (Transaction waiter : waiters) {
+                        for (int i = 0; i < owners.size(); i++) {
+                            Transaction holder = owners.holder(i);
+                            if (holder != waiter && !holder.isAborted()) {
+                                graph.addEdge(waiter, rid, holder);
+                            }
+                        }
+                    }
+                } finally {
+                    stripe.unlock();
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Searches for cycles through `start` under the detection lock of its shard if it has
+     * only used one, and under the locks of all shards, taken in order, if it has used
+     * several or the search has reached a transaction which has.
+     */
+    private void detectCycle(Transaction start) {
+        int home = start.getShard();
+        if (home >= 0) {
+            Shard shard = shards[home];
+            shard.detectionLock.lock();
+            try {
+                if (shard.detector.detectCycles(start)) {
+                    return;
+                }
+            } finally {
+                shard.detectionLock.unlock();
+            }
+        }
+        for (Shard shard : shards) {
+            shard.detectionLock.lock();
+        }
+        try {
+            globalDetector.detectCycles(start);
+        } finally {
+            for (int i = shards.length - 1; i >= 0; i--) {
+                shards[i].detectionLock.unlock();
+            }
         }
-        visited.put(stack.pop(), Node.DONE);
     }
 
-    private void handleCycle(Stack<Transaction> stack, Transaction start) {
-        Stack<Transaction> cycle = new Stack<>();
-        cycle.push(stack.pop());
-        while (!cycle.peek().equals(start)) {
-            cycle.push(stack.pop());
+    /**
+     * A waiting transaction depends on every other holder of the resource it waits for,
+     * as the queue is served in order. Visited transactions are marked with the current
+     * epoch and their depth instead of being collected in a map, and the current path is
+     * kept in a reused array, so a check allocates nothing and only visits transactions
+     * reachable from the new edge. Breaking one cycle may leave another one through
+     * `start`, hence the search is repeated until none is found.
+     *
+     * A detector of one shard only visits transactions which have used no other shard,
+     * so it never marks a transaction another shard's detector may be visiting. Still, a
+     * transaction may keep the mark of another detector's run, so epochs are unique
+     * across detectors: each counts its own runs, only ever under its detection lock, and
+     * takes the epochs congruent to its own number modulo the number of detectors. No
+     * counter is shared between shards.
+     */
+    private final class Detector {
+
+        private final int home;
+        private final int detectors;
+        private long runs;
+        private Transaction[] path;
+        private boolean crossed;
+
+        Detector(int home, int detectors) {
+            this.home = home;
+            this.detectors = detectors;
+            this.path = new Transaction[16];
         }
-        Transaction toBeCancelled = cycle.pop();
-        stack.push(toBeCancelled);
-        while (!cycle.empty()) {
-            Transaction transaction = cycle.pop();
-            if (transaction.getStartingTime() > toBeCancelled.getStartingTime()) {
-                toBeCancelled = transaction;
-            } else if (transaction.getStartingTime() == toBeCancelled.getStartingTime()
-                    && transaction.getThread().getId() > toBeCancelled.getThread().getId()) {
-                toBeCancelled = transaction;
+
+        private long nextEpoch() {
+            return ++runs * detectors + home + 1;
+        }
+
+        /**
+         * @return `false` if the search has reached a transaction of other shards and has
+         * to be repeated by the global detector.
+         */
+        boolean detectCycles(Transaction start) {
+            crossed = false;
+            while (!start.isAborted() && findCycle(start, 0, nextEpoch()) && !crossed) {
+                // Every iteration aborts one transaction.
             }
-            stack.push(transaction);
+            if (crossed) {
+                Arrays.fill(path, null);
+            }
+            return !crossed;
+        }
+
+        /**
+         * @return whether a cycle has been broken, or the search has to be abandoned.
+         */
+        private boolean findCycle(Transaction current, int depth, long epoch) {
+            current.mark(epoch, depth);
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, 2 * depth);
+            }
+            path[depth] = current;
+            ResourceId ridAdj = current.getWaitingFor();
+            Ownership owners = ridAdj == null ? null : shardOf(ridAdj).owners.get(ridAdj);
+            if (owners != null) {
+                for (int i = 0; i < owners.size(); i++) {
+                    Transaction adj = owners.holder(i);
+                    if (adj == current || adj.isAborted()) {
+                        continue;
+                    }
+                    if (home != ANY_SHARD && adj.getShard() != home) {
+                        crossed = true;
+                        return true;
+                    }
+                    if (adj.isOnStack(epoch)) {
+                        handleCycle(adj.getMarkDepth(), depth);
+                        return true;
+                    }
+                    if (!adj.isMarked(epoch) && findCycle(adj, depth + 1, epoch)) {
+                        return true;
+                    }
+                }
+            }
+            path[depth] = null;
+            current.markDone();
+            return false;
+        }
+
+        private void handleCycle(int from, int to) {
+            Transaction toBeCancelled = chooseVictim(Arrays.asList(path).subList(from, to + 1));
+            Arrays.fill(path, 0, to + 1, null);
+            toBeCancelled.abort();
+            metrics.deadlockResolved();
+            toBeCancelled.wakeUp();
         }
-        toBeCancelled.abort();
-        toBeCancelled.getSemaphore().release();
     }
 
 }
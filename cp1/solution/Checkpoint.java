@@ -0,0 +1,198 @@
+package cp1.solution;
+
+import cp1.base.OperationCodec;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * State of all the resources at a point of the write-ahead log. Records below `lsn` are
+ * reflected in the states, so recovery starts from the checkpoint and replays the log
+ * from `lsn` on.
+ *
+ * A checkpoint file is `[long lsn][int count]`, then `count` resource ids encoded by the
+ * codec, each followed by `[int length]` and that many bytes of the resource's state,
+ * and finally a CRC32 of everything before it. It is written under a temporary name and
+ * renamed once synced, so a crash leaves either the previous or the new checkpoint.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class Checkpoint {
+
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".dat";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final long lsn;
+    private final List<ResourceId> resources;
+    private final List<byte[]> states;
+
+    Checkpoint(long lsn, List<ResourceId> resources, List<byte[]> states) {
+        this.lsn = lsn;
+        this.resources = resources;
+        this.states = states;
+    }
+
+    long getLsn() {
+        return lsn;
+    }
+
+    int size() {
+        return resources.size();
+    }
+
+    ResourceId resourceAt(int i) {
+        return resources.get(i);
+    }
+
+    byte[] stateAt(int i) {
+        return states.get(i);
+    }
+
+    /**
+     * @throws IllegalArgumentException if `resource` does not override
+     * `Resource.saveState` and `Resource.restoreState`, so it could never be part of a
+     * checkpoint.
+     */
+    static void checkPersistable(Resource resource) {
+        if (!overrides(resource, "saveState", DataOutput.class)
+                || !overrides(resource, "restoreState", DataInput.class)) {
+            throw new IllegalArgumentException("Resource " + resource.getId()
+                    + " must override saveState and restoreState to be persisted");
+        }
+    }
+
+    /**
+     * @return whether the class of `resource` overrides the method of `Resource`.
+     */
+    static boolean overrides(Resource resource, String method, Class<?>... parameterTypes) {
+        try {
+            return resource.getClass().getMethod(method, parameterTypes).getDeclaringClass() != Resource.class;
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static byte[] stateOf(Resource resource) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        resource.saveState(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static void restore(Resource resource, byte[] state) throws IOException {
+        resource.restoreState(new DataInputStream(new ByteArrayInputStream(state)));
+    }
+
+    /**
+     * Durably replaces the checkpoint in `directory` with this one.
+     */
+    void write(Path directory, OperationCodec codec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(lsn);
+        out.writeInt(resources.size());
+        for (int i = 0; i < resources.size(); i++) {
+            codec.writeResourceId(resources.get(i), out);
+            out.writeInt(states.get(i).length);
+            out.write(states.get(i));
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        String name = String.format("%s%020d", PREFIX, lsn);
+        Path temporary = directory.resolve(name + TEMPORARY_SUFFIX);
+        Path target = directory.resolve(name + SUFFIX);
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            bytes.writeTo(file);
+            file.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(directory);
+        for (Path old : checkpoints(directory)) {
+            if (!old.equals(target)) {
+                Files.delete(old);
+            }
+        }
+    }
+
+    /**
+     * @return the newest intact checkpoint in `directory`, or `null` if there is none.
+     */
+    static Checkpoint latest(Path directory, OperationCodec codec) throws IOException {
+        List<Path> checkpoints = checkpoints(directory);
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            Checkpoint checkpoint = read(checkpoints.get(i), codec);
+            if (checkpoint != null) {
+                return checkpoint;
+            }
+        }
+        return null;
+    }
+
+    private static Checkpoint read(Path file, OperationCodec codec) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 16) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+        long lsn = in.readLong();
+        int count = in.readInt();
+        List<ResourceId> resources = new ArrayList<>(count);
+        List<byte[]> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            resources.add(codec.readResourceId(in));
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            states.add(state);
+        }
+        return new Checkpoint(lsn, resources, states);
+    }
+
+    private static List<Path> checkpoints(Path directory) throws IOException {
+        List<Path> checkpoints = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                checkpoints.add(file);
+            }
+        }
+        Collections.sort(checkpoints);
+        return checkpoints;
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory; the rename is still atomic.
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package cp1.solution;
+
+/**
+ * How a transaction manager keeps transactions from interfering with each other.
+ *
+ * @author Resul Hangeldiyev
+ */
+public enum ConcurrencyControl {
+    /**
+     * A transaction owns every resource it has operated on until it finishes, and waits
+     * for resources owned by others. Deadlocks are resolved by aborting a transaction.
+     */
+    PESSIMISTIC,
+    /**
+     * Transactions never wait for each other. Modifications are buffered and applied at
+     * commit, which aborts the transaction if anything it has read has been modified by a
+     * transaction committed in the meantime.
+     */
+    OPTIMISTIC
+}
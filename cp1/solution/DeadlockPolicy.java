@@ -0,0 +1,63 @@
+package cp1.solution;
+
+import java.util.List;
+
+/**
+ * Decides what happens when a transaction cannot get a resource right away. A policy
+ * either lets transactions wait for anybody and breaks the cycles `AllocationGraph`
+ * detects by aborting a victim, or prevents cycles from forming by judging every
+ * transaction the requester would wait for. See `StandardDeadlockPolicy` for the
+ * built-in ones.
+ *
+ * Methods are called while the graph holds its locks, so they must be quick and must
+ * not call back into the manager.
+ *
+ * Internal transactions of the manager, e.g. a checkpoint, are never aborted: they are
+ * left out of the cycles passed to {@link #chooseVictim}, and a verdict which would abort
+ * one aborts the other transaction of the conflict instead.
+ *
+ * @author Resul Hangeldiyev
+ */
+public interface DeadlockPolicy {
+
+    enum Resolution {
+        /**
+         * The requester waits for the blocker.
+         */
+        WAIT,
+        /**
+         * The requester is aborted instead of waiting.
+         */
+        ABORT_REQUESTER,
+        /**
+         * The blocker is aborted and the requester waits until it has rolled back.
+         */
+        ABORT_BLOCKER
+    }
+
+    /**
+     * @return `true` if requesters always wait and cycles are detected, `false` if
+     * {@link #onConflict} prevents them.
+     */
+    boolean detectsDeadlocks();
+
+    /**
+     * Judges one of the transactions the requester would wait for: holders of the
+     * resource and transactions queued for it ahead of the requester. The requester is
+     * aborted if any of them is judged so; otherwise blockers judged `ABORT_BLOCKER` are
+     * aborted. A waiter the requester is queued ahead of, and so would wait for the
+     * requester, is judged with the roles swapped: it is aborted if judged
+     * `ABORT_REQUESTER`, and the requester if judged `ABORT_BLOCKER`. Only called if the
+     * policy does not detect deadlocks.
+     */
+    Resolution onConflict(TransactionInfo requester, TransactionInfo blocker);
+
+    /**
+     * Chooses the transaction to abort from a cycle of transactions, each waiting for
+     * the next one and the last one for the first. Only called if the policy detects
+     * deadlocks.
+     *
+     * @return index of the victim in `cycle`.
+     */
+    int chooseVictim(List<? extends TransactionInfo> cycle);
+}
@@ -0,0 +1,60 @@
+package cp1.solution;
+
+import java.util.Arrays;
+
+/**
+ * A transaction spanning several participants of a `TwoPhaseCommitCoordinator`. It has
+ * a branch, i.e. a transaction of the participant's own, at every participant it has
+ * operated on. Like a `TransactionHandle`, it may be used by one thread at a time.
+ *
+ * @author Resul Hangeldiyev
+ */
+public final class DistributedTransaction {
+
+    static final long NO_BRANCH = -1;
+
+    private final long id;
+    private final long[] branches;
+    private volatile boolean isAborted;
+    private boolean isFinished;
+
+    DistributedTransaction(long id, int participants) {
+        this.id = id;
+        this.branches = new long[participants];
+        Arrays.fill(branches, NO_BRANCH);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return whether the transaction has been chosen as a victim of a distributed deadlock.
+     */
+    public boolean isAborted() {
+        return isAborted;
+    }
+
+    void abort() {
+        isAborted = true;
+    }
+
+    boolean isFinished() {
+        return isFinished;
+    }
+
+    void finish() {
+        isFinished = true;
+    }
+
+    /**
+     * @return id of the branch at the given participant, or `NO_BRANCH`.
+     */
+    long branchAt(int participant) {
+        return branches[participant];
+    }
+
+    void setBranch(int participant, long transactionId) {
+        branches[participant] = transactionId;
+    }
+}
@@ -0,0 +1,113 @@
+package cp1.solution;
+
+import cp1.base.TransactionManagerStats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative values with log-linear buckets, in the spirit of
+ * HdrHistogram: every power of two is split into 16 buckets, so a reported percentile
+ * is within about 6% of the exact one. Recording is one index computation and two
+ * atomic additions, with no locks and no allocation. The buckets are striped by thread
+ * like a `LongAdder`'s cells, so threads recording the same typical value do not all
+ * contend on one bucket; a snapshot adds the stripes up.
+ *
+ * @author Resul Hangeldiyev
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray[] stripes;
+    private final LongAdder sum;
+
+    public Histogram() {
+        this.stripes = new AtomicLongArray[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * @return the number of processors rounded up to a power of two, at most 64.
+     */
+    private static int stripeCount() {
+        int processors = Math.min(64, Runtime.getRuntime().availableProcessors());
+        return Integer.highestOneBit(Math.max(1, 2 * processors - 1));
+    }
+
+    private AtomicLongArray stripe() {
+        int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        stripe().incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    public TransactionManagerStats.Distribution snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        int last = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            for (AtomicLongArray stripe : stripes) {
+                counts[i] += stripe.get(i);
+            }
+            total += counts[i];
+            if (counts[i] > 0) {
+                last = i;
+            }
+        }
+        if (total == 0) {
+            return new TransactionManagerStats.Distribution(0, 0, 0, 0, 0, 0);
+        }
+        return new TransactionManagerStats.Distribution(
+                total,
+                (double) sum.sum() / total,
+                valueAt(counts, total, 0.5),
+                valueAt(counts, total, 0.99),
+                valueAt(counts, total, 0.999),
+                highestValueIn(last));
+    }
+
+    private static long valueAt(long[] counts, long total, double fraction) {
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueIn(i);
+            }
+        }
+        return highestValueIn(counts.length - 1);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueIn(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
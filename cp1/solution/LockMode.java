@@ -0,0 +1,54 @@
+package cp1.solution;
+
+/**
+ * Modes in which a transaction may hold a resource or a group of resources. Any number of
+ * transactions may share a resource, while an exclusive holder excludes everybody else.
+ * Holding a group in shared or exclusive mode covers all its members; intention modes on
+ * a group only announce that the holder takes some of its members in the corresponding
+ * mode, and so exclude transactions which would cover those members.
+ *
+ * @author Resul Hangeldiyev
+ */
+public enum LockMode {
+    INTENTION_SHARED,
+    INTENTION_EXCLUSIVE,
+    SHARED,
+    EXCLUSIVE;
+
+    private static final boolean[][] COMPATIBLE = {
+            {true, true, true, false},
+            {true, true, false, false},
+            {true, false, true, false},
+            {false, false, false, false}
+    };
+
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    public boolean covers(LockMode other) {
+        return join(other) == this;
+    }
+
+    /**
+     * @return the weakest mode covering both modes. There is no mode for shared access
+     * with the intention to modify some members, so such a holder is made exclusive.
+     */
+    public LockMode join(LockMode other) {
+        if (this == other || other == INTENTION_SHARED) {
+            return this;
+        }
+        if (this == INTENTION_SHARED) {
+            return other;
+        }
+        return EXCLUSIVE;
+    }
+
+    /**
+     * @return mode in which the group of a resource is taken before the resource is taken
+     * in this mode.
+     */
+    public LockMode intention() {
+        return this == SHARED || this == INTENTION_SHARED ? INTENTION_SHARED : INTENTION_EXCLUSIVE;
+    }
+}
@@ -0,0 +1,83 @@
+package cp1.solution;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TransactionHandle;
+import cp1.base.UnknownResourceIdException;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Transport to a manager in the same process, which calls it directly. Meant for tests
+ * and for running several managers as nodes of one process.
+ *
+ * @author Resul Hangeldiyev
+ */
+public final class LoopbackParticipant implements Participant {
+
+    private final TransactionManagerImpl tm;
+    private final ConcurrentMap<Long, TransactionHandle> transactions;
+
+    public LoopbackParticipant(TransactionManagerImpl tm) {
+        this.tm = tm;
+        this.transactions = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public long begin() {
+        TransactionHandle handle = tm.beginTransaction();
+        transactions.put(handle.getId(), handle);
+        return handle.getId();
+    }
+
+    @Override
+    public void operate(long transactionId, ResourceId rid, ResourceOperation operation)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+        tm.operateOnResource(transactions.get(transactionId), rid, operation);
+    }
+
+    @Override
+    public void prepare(long transactionId) throws NoActiveTransactionException, ActiveTransactionAborted {
+        tm.prepareTransaction(transactions.get(transactionId));
+    }
+
+    @Override
+    public void commit(long transactionId) {
+        try {
+            tm.commitTransaction(transactions.get(transactionId));
+        } catch (NoActiveTransactionException | ActiveTransactionAborted e) {
+            throw new IllegalStateException("Transaction " + transactionId + " has not been prepared", e);
+        }
+        transactions.remove(transactionId);
+    }
+
+    @Override
+    public void rollback(long transactionId) {
+        TransactionHandle handle = transactions.remove(transactionId);
+        if (handle != null) {
+            tm.rollbackTransaction(handle);
+        }
+    }
+
+    @Override
+    public void abort(long transactionId) {
+        TransactionHandle handle = transactions.get(transactionId);
+        if (handle != null) {
+            tm.abortTransaction(handle);
+        }
+    }
+
+    @Override
+    public List<WaitForEdge> getWaitForEdges() {
+        return tm.getWaitForEdges();
+    }
+}
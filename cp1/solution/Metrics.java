@@ -0,0 +1,233 @@
+package cp1.solution;
+
+import cp1.base.ResourceId;
+import cp1.base.TransactionManagerStats;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a transaction manager. Everything is recorded with `LongAdder`s and
+ * lock-free histograms, so the counters stay on under full load; only resources which
+ * have actually been waited for get a counter of their own, dropped again when the
+ * resource is unregistered.
+ *
+ * @author Resul Hangeldiyev
+ */
+public class Metrics implements TransactionManagerMXBean {
+
+    private static final int HOTTEST_RESOURCES = 10;
+
+    private final LongAdder started;
+    private final LongAdder committed;
+    private final LongAdder rolledBack;
+    private final LongAdder aborted;
+    private final LongAdder waits;
+    private final LongAdder deadlocks;
+    private final LongAdder deadlockSweeps;
+    private final LongAdder failedDeadlockSweeps;
+    private final LongAdder failedCheckpoints;
+    private volatile long deadlockDetectionIntervalNanos;
+    private final Histogram waitTimeNanos;
+    private final Histogram rollbackLengths;
+    private final ConcurrentMap<ResourceId, LongAdder> waitsPerResource;
+
+    public Metrics() {
+        this.started = new LongAdder();
+        this.committed = new LongAdder();
+        this.rolledBack = new LongAdder();
+        this.aborted = new LongAdder();
+        this.waits = new LongAdder();
+        this.deadlocks = new LongAdder();
+        this.deadlockSweeps = new LongAdder();
+        this.failedDeadlockSweeps = new LongAdder();
+        this.failedCheckpoints = new LongAdder();
+        this.waitTimeNanos = new Histogram();
+        this.rollbackLengths = new Histogram();
+        this.waitsPerResource = new ConcurrentHashMap<>();
+    }
+
+    public void transactionStarted() {
+        started.increment();
+    }
+
+    public void transactionCommitted() {
+        committed.increment();
+    }
+
+    public void transactionRolledBack(boolean wasAborted, int undoneOperations) {
+        rolledBack.increment();
+        if (wasAborted) {
+            aborted.increment();
+        }
+        rollbackLengths.record(undoneOperations);
+    }
+
+    public void waitStarted(ResourceId rid) {
+        waits.increment();
+        LongAdder counter = waitsPerResource.get(rid);
+        if (counter == null) {
+            counter = waitsPerResource.computeIfAbsent(rid, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public void resourceRemoved(ResourceId rid) {
+        waitsPerResource.remove(rid);
+    }
+
+    public void waitFinished(long nanos) {
+        waitTimeNanos.record(nanos);
+    }
+
+    public void deadlockResolved() {
+        deadlocks.increment();
+    }
+
+    public void deadlockSweepFinished() {
+        deadlockSweeps.increment();
+    }
+
+    public void deadlockSweepFailed() {
+        failedDeadlockSweeps.increment();
+    }
+
+    public void checkpointFailed() {
+        failedCheckpoints.increment();
+    }
+
+    /**
+     * @param nanos interval between periodic deadlock sweeps, or 0 if every wait detects
+     *              deadlocks itself.
+     */
+    public void setDeadlockDetectionIntervalNanos(long nanos) {
+        deadlockDetectionIntervalNanos = nanos;
+    }
+
+    public TransactionManagerStats snapshot() {
+        return new TransactionManagerStats(
+                started.sum(),
+                committed.sum(),
+                rolledBack.sum(),
+                aborted.sum(),
+                waits.sum(),
+                deadlocks.sum(),
+                deadlockSweeps.sum(),
+                failedDeadlockSweeps.sum(),
+                deadlockDetectionIntervalNanos,
+                failedCheckpoints.sum(),
+                waitTimeNanos.snapshot(),
+                rollbackLengths.snapshot(),
+                hottestResources());
+    }
+
+    private Map<ResourceId, Long> hottestResources() {
+        List<Map.Entry<ResourceId, Long>> entries = new ArrayList<>();
+        for (Map.Entry<ResourceId, LongAdder> entry : waitsPerResource.entrySet()) {
+            entries.add(Map.entry(entry.getKey(), entry.getValue().sum()));
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<ResourceId, Long> hottest = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(HOTTEST_RESOURCES, entries.size()); i++) {
+            hottest.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return hottest;
+    }
+
+    /**
+     * Registers the counters in the platform MBean server as
+     * `cp1.solution:type=TransactionManager,name=<name>`.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("cp1.solution:type=TransactionManager,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getStartedTransactions() {
+        return started.sum();
+    }
+
+    @Override
+    public long getCommittedTransactions() {
+        return committed.sum();
+    }
+
+    @Override
+    public long getRolledBackTransactions() {
+        return rolledBack.sum();
+    }
+
+    @Override
+    public long getAbortedTransactions() {
+        return aborted.sum();
+    }
+
+    @Override
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    @Override
+    public long getDeadlocks() {
+        return deadlocks.sum();
+    }
+
+    @Override
+    public long getDeadlockSweeps() {
+        return deadlockSweeps.sum();
+    }
+
+    @Override
+    public long getFailedDeadlockSweeps() {
+        return failedDeadlockSweeps.sum();
+    }
+
+    @Override
+    public long getDeadlockDetectionIntervalNanos() {
+        return deadlockDetectionIntervalNanos;
+    }
+
+    @Override
+    public long getFailedCheckpoints() {
+        return failedCheckpoints.sum();
+    }
+
+    @Override
+    public long getWaitTimeP50Nanos() {
+        return waitTimeNanos.snapshot().getP50();
+    }
+
+    @Override
+    public long getWaitTimeP99Nanos() {
+        return waitTimeNanos.snapshot().getP99();
+    }
+
+    @Override
+    public long getWaitTimeMaxNanos() {
+        return waitTimeNanos.snapshot().getMax();
+    }
+
+    @Override
+    public long getRollbackLengthP99() {
+        return rollbackLengths.snapshot().getP99();
+    }
+
+    @Override
+    public String[] getHottestResources() {
+        List<String> hottest = new ArrayList<>();
+        for (Map.Entry<ResourceId, Long> entry : hottestResources().entrySet()) {
+            hottest.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return hottest.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,308 @@
+package cp1.solution;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Validation-based concurrency control, used instead of `AllocationGraph` by managers
+ * in optimistic mode. Transactions never own resources while they run, so they never
+ * wait for each other nor deadlock.
+ *
+ * Every resource has a version, changed by each transaction that commits a modification
+ * of it, and a latch held only for the duration of a single operation or commit.
+ * Read-only operations are performed right away under the latch in shared mode, and the
+ * version they saw is recorded in the transaction's `ResourceSet`. Other operations are
+ * only buffered in the transaction's `UndoLog`. At commit the latches of the modified
+ * resources are taken in the order of ids, the recorded versions are validated and the
+ * buffered operations are applied; a changed version means a conflicting commit and the
+ * transaction has to abort instead.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class OptimisticConcurrency {
+
+    private static final class Latch {
+        private final StampedLock lock = new StampedLock();
+        // Written only under the write lock.
+        private volatile long version;
+        private volatile boolean retired;
+
+        private Latch(long version) {
+            this.version = version;
+        }
+    }
+
+    private final Map<ResourceId, Resource> resources;
+    private final ConcurrentMap<ResourceId, Latch> latches;
+    private final AtomicLong versions;
+    private final VersionStore versionStore;
+
+    OptimisticConcurrency(Map<ResourceId, Resource> resources, VersionStore versionStore) {
+        this.resources = resources;
+        this.versionStore = versionStore;
+        this.latches = new ConcurrentHashMap<>();
+        this.versions = new AtomicLong();
+        for (ResourceId rid : resources.keySet()) {
+            latches.put(rid, new Latch(0));
+        }
+    }
+
+    /**
+     * Starts tracking a resource about to be added to `resources`. Versions are drawn from
+     * one counter, so a transaction which has read a removed resource cannot mistake a new
+     * one with the same id for it.
+     */
+    void register(ResourceId rid) {
+        latches.putIfAbsent(rid, new Latch(versions.incrementAndGet()));
+    }
+
+    /**
+     * Removes a resource from `resources`, and its versions, once no operation or commit
+     * is in progress on it. Transactions which have accessed it abort at their next read
+     * of it or at commit.
+     */
+    void unregister(ResourceId rid) {
+        Latch latch = latches.get(rid);
+        long stamp = latch.lock.writeLock();
+        try {
+            latch.retired = true;
+            if (versionStore != null) {
+                versionStore.unregister(rid);
+            }
+            resources.remove(rid);
+            latches.remove(rid);
+        } finally {
+            latch.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Performs a read-only operation, or buffers any other one until commit. Errors of
+     * buffered operations are therefore reported by the commit, as an abort.
+     */
+    void operate(Transaction transaction, ResourceId rid, ResourceOperation operation)
+            throws ActiveTransactionAborted, ResourceOperationException {
+        if (!operation.isReadOnly()) {
+            transaction.newAcquiredResource(rid, LockMode.EXCLUSIVE);
+            transaction.finishedOperationOnTheResource(rid, operation);
+        } else if (transaction.getAcquiredMode(rid) == LockMode.EXCLUSIVE) {
+            readOwnWrites(transaction, rid, operation);
+        } else {
+            if (transaction.getAcquiredMode(rid) == null) {
+                transaction.newAcquiredResource(rid, LockMode.SHARED);
+            }
+            Latch latch = latches.get(rid);
+            if (latch == null) {
+                throw abort(transaction);
+            }
+            long stamp = latch.lock.readLock();
+            try {
+                checkVersion(transaction, rid, latch);
+                resources.get(rid).apply(operation);
+            } finally {
+                latch.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Reads a resource the transaction has modified: its buffered operations are applied
+     * for the time of the read, under the latch in exclusive mode so nobody else sees
+     * them, and undone afterwards.
+     */
+    private void readOwnWrites(Transaction transaction, ResourceId rid, ResourceOperation operation)
+            throws ActiveTransactionAborted, ResourceOperationException {
+        Latch latch = latches.get(rid);
+        if (latch == null) {
+            throw abort(transaction);
+        }
+        Resource resource = resources.get(rid);
+        UndoLog undoLog = transaction.getUndoLog();
+        int applied = 0;
+        long stamp = latch.lock.writeLock();
+        try {
+            checkVersion(transaction, rid, latch);
+            for (; applied < undoLog.size(); applied++) {
+                if (undoLog.resourceAt(applied).equals(rid)) {
+                    try {
+                        resource.apply(undoLog.operationAt(applied));
+                    } catch (ResourceOperationException e) {
+                        transaction.abort();
+                        throw new ActiveTransactionAborted();
+                    }
+                }
+            }
+            resource.apply(operation);
+        } finally {
+            for (int i = applied - 1; i >= 0; i--) {
+                if (undoLog.resourceAt(i).equals(rid)) {
+                    resource.unapply(undoLog.operationAt(i));
+                }
+            }
+            latch.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Aborts the transaction as soon as a read sees a version different from the one seen
+     * by its earlier read of the resource, which could not be validated anyway, or sees
+     * the resource has been removed.
+     */
+    private static void checkVersion(Transaction transaction, ResourceId rid, Latch latch)
+            throws ActiveTransactionAborted {
+        long version = latch.version;
+        if (latch.retired || transaction.getAcquiredResources().observe(rid, version) != version) {
+            throw abort(transaction);
+        }
+    }
+
+    private static ActiveTransactionAborted abort(Transaction transaction) {
+        transaction.abort();
+        return new ActiveTransactionAborted();
+    }
+
+    /**
+     * Validates the transaction and applies its buffered operations. With a write-ahead
+     * log, the transaction is logged, and with a version store its states are kept,
+     * before the modified resources are let go. The states are saved before the log is
+     * appended to, so a failure undoes a transaction the log knows nothing of.
+     *
+     * @return `false` if the transaction has to abort, with no resource modified.
+     */
+    boolean commit(Transaction transaction, WriteAheadLog writeAheadLog) {
+        ResourceSet accessed = transaction.getAcquiredResources();
+        int writes = 0;
+        for (int i = 0; i < accessed.size(); i++) {
+            if (accessed.modeAt(i) == LockMode.EXCLUSIVE) {
+                writes++;
+            }
+        }
+        ResourceId[] written = new ResourceId[writes];
+        for (int i = 0, j = 0; i < accessed.size(); i++) {
+            if (accessed.modeAt(i) == LockMode.EXCLUSIVE) {
+                written[j++] = accessed.idAt(i);
+            }
+        }
+        Arrays.sort(written);
+        Latch[] held = new Latch[writes];
+        long[] stamps = new long[writes];
+        int locked = 0;
+        try {
+            for (; locked < writes; locked++) {
+                held[locked] = latches.get(written[locked]);
+                if (held[locked] == null) {
+                    return false;
+                }
+                stamps[locked] = held[locked].lock.writeLock();
+            }
+            for (Latch latch : held) {
+                if (latch.retired) {
+                    return false;
+                }
+            }
+            if (!validate(accessed) || !apply(transaction.getUndoLog())) {
+                return false;
+            }
+            VersionStore.Pending states;
+            try {
+                states = versionStore == null ? null : versionStore.save(accessed);
+                if (writeAheadLog != null) {
+                    writeAheadLog.commit(transaction.getId(), transaction.getUndoLog());
+                }
+            } catch (RuntimeException e) {
+                undo(transaction.getUndoLog(), transaction.getUndoLog().size());
+                throw e;
+            }
+            if (versionStore != null) {
+                versionStore.install(states);
+            }
+            long version = versions.incrementAndGet();
+            for (Latch latch : held) {
+                latch.version = version;
+            }
+            return true;
+        } finally {
+            for (int i = 0; i < locked; i++) {
+                held[i].lock.unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * A resource which has only been read must neither be latched by another committer,
+     * which is about to change it, nor have a different version.
+     */
+    private boolean validate(ResourceSet accessed) {
+        for (int i = 0; i < accessed.size(); i++) {
+            long version = accessed.versionAt(i);
+            if (version == ResourceSet.NOT_READ) {
+                continue;
+            }
+            Latch latch = latches.get(accessed.idAt(i));
+            if (latch == null || latch.version != version
+                    || (accessed.modeAt(i) == LockMode.SHARED && latch.lock.isWriteLocked())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean apply(UndoLog undoLog) {
+        for (int i = 0; i < undoLog.size(); i++) {
+            try {
+                resources.get(undoLog.resourceAt(i)).apply(undoLog.operationAt(i));
+            } catch (ResourceOperationException e) {
+                undo(undoLog, i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void undo(UndoLog undoLog, int applied) {
+        for (int i = applied - 1; i >= 0; i--) {
+            resources.get(undoLog.resourceAt(i)).unapply(undoLog.operationAt(i));
+        }
+    }
+
+    /**
+     * Takes the latches of all the given resources in shared mode, e.g. for a checkpoint.
+     * Committers take theirs in the order of ids too, so `rids` must be sorted. Resources
+     * removed meanwhile are skipped; they are gone from `resources` once this returns.
+     *
+     * @return stamps for {@link #unlockAll}, 0 for the skipped resources.
+     */
+    long[] lockAll(List<ResourceId> rids) {
+        long[] stamps = new long[rids.size()];
+        for (int i = 0; i < rids.size(); i++) {
+            Latch latch = latches.get(rids.get(i));
+            if (latch != null) {
+                stamps[i] = latch.lock.readLock();
+                if (latch.retired) {
+                    latch.lock.unlockRead(stamps[i]);
+                    stamps[i] = 0;
+                }
+            }
+        }
+        return stamps;
+    }
+
+    void unlockAll(List<ResourceId> rids, long[] stamps) {
+        for (int i = 0; i < rids.size(); i++) {
+            if (stamps[i] != 0) {
+                latches.get(rids.get(i)).lock.unlockRead(stamps[i]);
+            }
+        }
+    }
+}
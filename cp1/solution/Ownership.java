@@ -0,0 +1,96 @@
+package cp1.solution;
+
+/**
+ * Immutable set of transactions holding a resource together with their modes. A new
+ * instance is installed in the owners table with a CAS whenever the set changes.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class Ownership {
+
+    private final Transaction[] holders;
+    private final LockMode[] modes;
+
+    private Ownership(Transaction[] holders, LockMode[] modes) {
+        this.holders = holders;
+        this.modes = modes;
+    }
+
+    static Ownership of(Transaction holder, LockMode mode) {
+        return new Ownership(new Transaction[] {holder}, new LockMode[] {mode});
+    }
+
+    int size() {
+        return holders.length;
+    }
+
+    Transaction holder(int i) {
+        return holders[i];
+    }
+
+    LockMode mode(int i) {
+        return modes[i];
+    }
+
+    /**
+     * Tells whether `transaction` could hold the resource in `mode` next to the other
+     * holders. The transaction's own grant is ignored, which allows upgrades.
+     */
+    boolean allows(Transaction transaction, LockMode mode) {
+        for (int i = 0; i < holders.length; i++) {
+            if (holders[i] != transaction && !mode.isCompatibleWith(modes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Ownership with(Transaction transaction, LockMode mode) {
+        int i = indexOf(transaction);
+        if (i >= 0) {
+            LockMode[] newModes = modes.clone();
+            newModes[i] = mode;
+            return new Ownership(holders, newModes);
+        }
+        Transaction[] newHolders = new Transaction[holders.length + 1];
+        LockMode[] newModes = new LockMode[modes.length + 1];
+        System.arraycopy(holders, 0, newHolders, 0, holders.length);
+        System.arraycopy(modes, 0, newModes, 0, modes.length);
+        newHolders[holders.length] = transaction;
+        newModes[modes.length] = mode;
+        return new Ownership(newHolders, newModes);
+    }
+
+    /**
+     * @return ownership without `transaction`, or `null` if nobody else holds the resource.
+     */
+    Ownership without(Transaction transaction) {
+        int i = indexOf(transaction);
+        if (i < 0) {
+            return this;
+        }
+        if (holders.length == 1) {
+            return null;
+        }
+        Transaction[] newHolders = new Transaction[holders.length - 1];
+        LockMode[] newModes = new LockMode[modes.length - 1];
+        System.arraycopy(holders, 0, newHolders, 0, i);
+        System.arraycopy(modes, 0, newModes, 0, i);
+        System.arraycopy(holders, i + 1, newHolders, i, holders.length - i - 1);
+        System.arraycopy(modes, i + 1, newModes, i, modes.length - i - 1);
+        return new Ownership(newHolders, newModes);
+    }
+
+    boolean contains(Transaction transaction) {
+        return indexOf(transaction) >= 0;
+    }
+
+    private int indexOf(Transaction transaction) {
+        for (int i = 0; i < holders.length; i++) {
+            if (holders[i] == transaction) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
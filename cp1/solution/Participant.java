@@ -0,0 +1,54 @@
+package cp1.solution;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.UnknownResourceIdException;
+
+import java.util.List;
+
+/**
+ * A transaction manager taking part in distributed transactions, as seen by a
+ * `TwoPhaseCommitCoordinator`. Implementations are transports: they carry the calls to
+ * a manager, which may run in another process, and its answers and exceptions back.
+ * Transactions are identified by their ids within the participant's manager. Operations
+ * may be shipped with an `OperationCodec`.
+ *
+ * @author Resul Hangeldiyev
+ */
+public interface Participant {
+
+    /**
+     * @return id of a new transaction.
+     */
+    long begin();
+
+    void operate(long transactionId, ResourceId rid, ResourceOperation operation)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException;
+
+    /**
+     * Votes on the outcome of a transaction: returns if it will commit when told to,
+     * throws if it has been aborted.
+     */
+    void prepare(long transactionId) throws NoActiveTransactionException, ActiveTransactionAborted;
+
+    /**
+     * Commits a prepared transaction, which must not fail.
+     */
+    void commit(long transactionId);
+
+    void rollback(long transactionId);
+
+    /**
+     * Aborts a transaction which has not been prepared yet, without waiting for it.
+     */
+    void abort(long transactionId);
+
+    List<WaitForEdge> getWaitForEdges();
+}
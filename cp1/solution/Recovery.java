@@ -0,0 +1,136 @@
+package cp1.solution;
+
+import cp1.base.OperationCodec;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperationException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Brings resources to the state they had after the last transaction committed to a state
+ * directory: restores the newest checkpoint and replays the write-ahead log past it.
+ *
+ * Operations on distinct resources are independent, so both steps are partitioned by
+ * resource id. The log is decoded sequentially into one `UndoLog` per partition, keeping
+ * the order of operations on every resource, and then the partitions are restored and
+ * replayed in parallel. State found for resources which are not managed any more is
+ * skipped.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class Recovery {
+
+    private final Map<ResourceId, Resource> resources;
+    private final OperationCodec codec;
+    private final int partitions;
+    private final List<List<Integer>> checkpointEntries;
+    private final List<UndoLog> replayed;
+
+    private Recovery(Map<ResourceId, Resource> resources, OperationCodec codec) {
+        this.resources = resources;
+        this.codec = codec;
+        this.partitions = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), resources.size()));
+        this.checkpointEntries = new ArrayList<>(partitions);
+        this.replayed = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            checkpointEntries.add(new ArrayList<>());
+            replayed.add(new UndoLog());
+        }
+    }
+
+    /**
+     * @return LSN of the restored checkpoint, or 0 if there was none.
+     */
+    static long restore(Path directory, OperationCodec codec, Map<ResourceId, Resource> resources)
+            throws IOException {
+        Files.createDirectories(directory);
+        return new Recovery(resources, codec).run(directory);
+    }
+
+    private long run(Path directory) throws IOException {
+        Checkpoint checkpoint = Checkpoint.latest(directory, codec);
+        long from = 0;
+        if (checkpoint != null) {
+            from = checkpoint.getLsn();
+            for (int i = 0; i < checkpoint.size(); i++) {
+                if (resources.containsKey(checkpoint.resourceAt(i))) {
+                    checkpointEntries.get(partitionOf(checkpoint.resourceAt(i))).add(i);
+                }
+            }
+        }
+        readLog(directory, from);
+        List<Callable<Void>> tasks = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            int partition = i;
+            tasks.add(() -> {
+                restorePartition(checkpoint, partition);
+                return null;
+            });
+        }
+        for (Future<Void> task : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Recovery has been interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Recovery has failed", e.getCause());
+            }
+        }
+        return from;
+    }
+
+    private void readLog(Path directory, long from) throws IOException {
+        List<Path> segments = WriteAheadLog.segments(directory);
+        if (!segments.isEmpty() && WriteAheadLog.segmentStart(segments.get(0)) > from) {
+            throw new IllegalStateException("Write-ahead log does not reach back to the last checkpoint");
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            long valid = WriteAheadLog.read(segment, (lsn, transactionId, count, entries) -> {
+                if (lsn < from) {
+                    return;
+                }
+                for (int j = 0; j < count; j++) {
+                    ResourceId rid = codec.readResourceId(entries);
+                    replayed.get(partitionOf(rid)).add(rid, codec.readOperation(entries));
+                }
+            });
+            if (i + 1 < segments.size() && valid != Files.size(segment)) {
+                throw new IllegalStateException("Write-ahead log segment " + segment + " is corrupted");
+            }
+        }
+    }
+
+    private void restorePartition(Checkpoint checkpoint, int partition)
+            throws IOException, ResourceOperationException {
+        for (int i : checkpointEntries.get(partition)) {
+            Checkpoint.restore(resources.get(checkpoint.resourceAt(i)), checkpoint.stateAt(i));
+        }
+        UndoLog operations = replayed.get(partition);
+        for (int i = 0; i < operations.size(); i++) {
+            Resource resource = resources.get(operations.resourceAt(i));
+            if (resource != null) {
+                resource.apply(operations.operationAt(i));
+            }
+        }
+    }
+
+    private int partitionOf(ResourceId rid) {
+        int hash = rid.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), partitions);
+    }
+}
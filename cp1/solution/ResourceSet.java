@@ -0,0 +1,150 @@
+package cp1.solution;
+
+import cp1.base.ResourceId;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resources acquired by a transaction together with their modes, in the order of
+ * acquisition. Most transactions hold a handful of resources, which are found by a
+ * linear scan without hashing; an index is built only when the set outgrows
+ * `INLINE_CAPACITY`. Like `UndoLog`, a set is cleared and reused.
+ *
+ * Optimistic transactions also keep here the version of every resource they have read,
+ * as seen by the first read.
+ *
+ * @author Resul Hangeldiyev
+ */
+public class ResourceSet {
+
+    private static final int INLINE_CAPACITY = 4;
+    private static final int MAX_RETAINED_CAPACITY = 1024;
+
+    public static final long NOT_READ = -1;
+
+    private ResourceId[] ids;
+    private LockMode[] modes;
+    private long[] versions;
+    private int size;
+    private Map<ResourceId, Integer> index;
+
+    public ResourceSet() {
+        this.ids = new ResourceId[INLINE_CAPACITY];
+        this.modes = new LockMode[INLINE_CAPACITY];
+        this.versions = new long[INLINE_CAPACITY];
+        this.size = 0;
+        this.index = null;
+    }
+
+    /**
+     * @return mode in which `rid` is held, or `null` if it is not in the set.
+     */
+    public LockMode modeOf(ResourceId rid) {
+        int i = indexOf(rid);
+        return i < 0 ? null : modes[i];
+    }
+
+    public void put(ResourceId rid, LockMode mode) {
+        int i = indexOf(rid);
+        if (i >= 0) {
+            modes[i] = mode;
+            return;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            modes = Arrays.copyOf(modes, 2 * size);
+            versions = Arrays.copyOf(versions, 2 * size);
+        }
+        ids[size] = rid;
+        modes[size] = mode;
+        versions[size] = NOT_READ;
+        if (index != null) {
+            index.put(rid, size);
+        } else if (size == INLINE_CAPACITY) {
+            index = new HashMap<>();
+            for (int j = 0; j <= size; j++) {
+                index.put(ids[j], j);
+            }
+        }
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ResourceId idAt(int i) {
+        return ids[i];
+    }
+
+    public LockMode modeAt(int i) {
+        return modes[i];
+    }
+
+    /**
+     * Records the version of `rid` seen by a read, unless an earlier read has already
+     * recorded one. The resource must be in the set.
+     *
+     * @return the version recorded for `rid`.
+     */
+    public long observe(ResourceId rid, long version) {
+        int i = indexOf(rid);
+        if (versions[i] == NOT_READ) {
+            versions[i] = version;
+        }
+        return versions[i];
+    }
+
+    /**
+     * @return version of the resource seen by the first read, or `NOT_READ`.
+     */
+    public long versionAt(int i) {
+        return versions[i];
+    }
+
+    /**
+     * Drops the resources acquired after the first `size` ones.
+     */
+    public void truncate(int size) {
+        if (index != null) {
+            if (size <= INLINE_CAPACITY) {
+                index = null;
+            } else {
+                for (int i = size; i < this.size; i++) {
+                    index.remove(ids[i]);
+                }
+            }
+        }
+        Arrays.fill(ids, size, this.size, null);
+        Arrays.fill(modes, size, this.size, null);
+        this.size = size;
+    }
+
+    public void clear() {
+        if (ids.length > MAX_RETAINED_CAPACITY) {
+            ids = new ResourceId[INLINE_CAPACITY];
+            modes = new LockMode[INLINE_CAPACITY];
+            versions = new long[INLINE_CAPACITY];
+        } else {
+            Arrays.fill(ids, 0, size, null);
+            Arrays.fill(modes, 0, size, null);
+        }
+        size = 0;
+        index = null;
+    }
+
+    private int indexOf(ResourceId rid) {
+        if (index != null) {
+            Integer i = index.get(rid);
+            return i == null ? -1 : i;
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i].equals(rid)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,89 @@
+package cp1.solution;
+
+import java.util.List;
+
+/**
+ * Built-in deadlock policies.
+ *
+ * @author Resul Hangeldiyev
+ */
+public enum StandardDeadlockPolicy implements DeadlockPolicy {
+    /**
+     * Transactions wait for anybody; of a detected cycle the youngest transaction is
+     * aborted.
+     */
+    DETECT_ABORT_YOUNGEST {
+        @Override
+        public int chooseVictim(List<? extends TransactionInfo> cycle) {
+            int victim = 0;
+            for (int i = 1; i < cycle.size(); i++) {
+                if (cycle.get(victim).isOlderThan(cycle.get(i))) {
+                    victim = i;
+                }
+            }
+            return victim;
+        }
+    },
+    /**
+     * Transactions wait for anybody; of a detected cycle the transaction with the fewest
+     * operations to undo is aborted, which wastes the least work.
+     */
+    DETECT_ABORT_FEWEST_UNDO {
+        @Override
+        public int chooseVictim(List<? extends TransactionInfo> cycle) {
+            int victim = 0;
+            for (int i = 1; i < cycle.size(); i++) {
+                int size = cycle.get(i).getUndoLogSize();
+                int victimSize = cycle.get(victim).getUndoLogSize();
+                if (size < victimSize || (size == victimSize && cycle.get(victim).isOlderThan(cycle.get(i)))) {
+                    victim = i;
+                }
+            }
+            return victim;
+        }
+    },
+    /**
+     * An older transaction waits for younger ones, a younger one is aborted rather than
+     * wait for an older one.
+     */
+    WAIT_DIE {
+        @Override
+        public Resolution onConflict(TransactionInfo requester, TransactionInfo blocker) {
+            return requester.isOlderThan(blocker) ? Resolution.WAIT : Resolution.ABORT_REQUESTER;
+        }
+    },
+    /**
+     * An older transaction aborts younger ones it would wait for, a younger one waits for
+     * older ones.
+     */
+    WOUND_WAIT {
+        @Override
+        public Resolution onConflict(TransactionInfo requester, TransactionInfo blocker) {
+            return requester.isOlderThan(blocker) ? Resolution.ABORT_BLOCKER : Resolution.WAIT;
+        }
+    },
+    /**
+     * A transaction which cannot get a resource right away is aborted.
+     */
+    NO_WAIT {
+        @Override
+        public Resolution onConflict(TransactionInfo requester, TransactionInfo blocker) {
+            return Resolution.ABORT_REQUESTER;
+        }
+    };
+
+    @Override
+    public boolean detectsDeadlocks() {
+        return this == DETECT_ABORT_YOUNGEST || this == DETECT_ABORT_FEWEST_UNDO;
+    }
+
+    @Override
+    public Resolution onConflict(TransactionInfo requester, TransactionInfo blocker) {
+        return Resolution.WAIT;
+    }
+
+    @Override
+    public int chooseVictim(List<? extends TransactionInfo> cycle) {
+        throw new UnsupportedOperationException(name() + " does not detect deadlocks");
+    }
+}
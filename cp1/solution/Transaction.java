@@ -2,93 +2,343 @@ package cp1.solution;
 
 import cp1.base.ResourceId;
 import cp1.base.ResourceOperation;
+import cp1.base.TransactionPriority;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Class wraps all information about a transaction.
+ * Class wraps all information about a transaction. A transaction is identified by an id
+ * assigned by its manager in the order of creation, not by a thread.
  *
  * @author Resul Hangeldiyev
  */
-public class Transaction {
+public class Transaction implements TransactionInfo {
 
-    private boolean isAborted;
-    private final Collection<ResourceId> acquiredResources;
-    private final List<ResourceId> operatedResources;
-    private final List<ResourceOperation> finishedOperations;
+    static final int NO_SHARD = -1;
+    static final int MANY_SHARDS = -2;
+
+    private static final int ACTIVE = 0;
+    private static final int ABORTED = 1;
+    private static final int PREPARED = 2;
+
+    private final AtomicInteger state;
+    private volatile boolean isFinished;
+    private ResourceSet acquiredResources;
+    private UndoLog undoLog;
     private final long startingTime;
-    private final Thread thread;
+    private final long id;
+    private final TransactionPriority priority;
+    private final boolean isInternal;
     private final Semaphore semaphore;
+    private volatile CompletableFuture<Void> accessFuture;
+    private LockMode requestedMode;
+    private long detectionMark;
+    private int detectionDepth;
+    private WaitQueue waitQueue;
+    private int waitClass;
+    private Transaction waitPrev;
+    private Transaction waitNext;
+    private Map<ResourceId, Integer> memberGrants;
+    private TransactionSavepoint latestSavepoint;
+    private volatile ResourceId waitingFor;
+    private volatile int shard = NO_SHARD;
+
+    public Transaction(long id, long startingTime) {
+        this(id, startingTime, TransactionPriority.INTERACTIVE, new ResourceSet(), new UndoLog());
+    }
+
+    public Transaction(long id, long startingTime, TransactionPriority priority) {
+        this(id, startingTime, priority, new ResourceSet(), new UndoLog());
+    }
 
-    public Transaction(Thread thread, long startingTime) {
-        this.thread = thread;
+    /**
+     * Creates a transaction reusing empty bookkeeping of a finished one.
+     */
+    public Transaction(long id, long startingTime, TransactionPriority priority,
+                       ResourceSet acquiredResources, UndoLog undoLog) {
+        this(id, startingTime, priority, acquiredResources, undoLog, false);
+    }
+
+    private Transaction(long id, long startingTime, TransactionPriority priority,
+                        ResourceSet acquiredResources, UndoLog undoLog, boolean isInternal) {
+        this.id = id;
         this.startingTime = startingTime;
-        this.isAborted = false;
-        this.acquiredResources = new HashSet<>();
-        this.operatedResources = new ArrayList<>();
-        this.finishedOperations = new ArrayList<>();
+        this.priority = priority;
+        this.isInternal = isInternal;
+        this.state = new AtomicInteger(ACTIVE);
+        this.isFinished = false;
+        this.acquiredResources = acquiredResources;
+        this.undoLog = undoLog;
         this.semaphore = new Semaphore(0);
     }
 
+    /**
+     * Creates a transaction the manager runs on its own behalf, e.g. for a checkpoint. It
+     * is older than any other transaction and the allocation graph never aborts it.
+     */
+    static Transaction internal(long id) {
+        return new Transaction(id, Long.MIN_VALUE, TransactionPriority.INTERACTIVE,
+                new ResourceSet(), new UndoLog(), true);
+    }
+
     public boolean isAborted() {
-        return isAborted;
+        return state.get() == ABORTED;
     }
 
-    public boolean wasAccessAcquiredForResource(ResourceId rid) {
-        return acquiredResources.contains(rid);
+    public boolean isInternal() {
+        return isInternal;
     }
 
-    public Collection<ResourceId> getAcquiredResources() {
+    public boolean wasAccessAcquiredForResource(ResourceId rid, LockMode mode) {
+        LockMode acquiredMode = acquiredResources.modeOf(rid);
+        return acquiredMode != null && acquiredMode.covers(mode);
+    }
+
+    public LockMode getAcquiredMode(ResourceId rid) {
+        return acquiredResources.modeOf(rid);
+    }
+
+    public ResourceSet getAcquiredResources() {
         return acquiredResources;
     }
 
-    public void newAcquiredResource(ResourceId rid) {
-        acquiredResources.add(rid);
+    public void newAcquiredResource(ResourceId rid, LockMode mode) {
+        acquiredResources.put(rid, mode);
     }
 
-    public void finishedOperationOnTheResource(ResourceId rid, ResourceOperation resourceOperation) {
-        operatedResources.add(rid);
-        finishedOperations.add(resourceOperation);
+    /**
+     * Counts a member of `group` granted to the transaction in its own right rather than
+     * through the group, for lock escalation. Like acquired resources, the counts are
+     * updated either by the transaction itself or by whoever hands it a resource it waits
+     * for.
+     */
+    public void memberGranted(ResourceId group) {
+        if (memberGrants == null) {
+            memberGrants = new HashMap<>();
+        }
+        memberGrants.merge(group, 1, Integer::sum);
+    }
+
+    public int getMemberGrants(ResourceId group) {
+        return memberGrants == null ? 0 : memberGrants.getOrDefault(group, 0);
+    }
+
+    public void resetMemberGrants(ResourceId group) {
+        if (memberGrants != null) {
+            memberGrants.remove(group);
+        }
     }
 
-    public List<ResourceId> getOperatedResources() {
-        return operatedResources;
+    TransactionSavepoint getLatestSavepoint() {
+        return latestSavepoint;
     }
 
-    public List<ResourceOperation> getFinishedOperations() {
-        return finishedOperations;
+    void setLatestSavepoint(TransactionSavepoint latestSavepoint) {
+        this.latestSavepoint = latestSavepoint;
     }
 
+    public LockMode getRequestedMode() {
+        return requestedMode;
+    }
+
+    public void setRequestedMode(LockMode requestedMode) {
+        this.requestedMode = requestedMode;
+    }
+
+    public void finishedOperationOnTheResource(ResourceId rid, ResourceOperation resourceOperation) {
+        undoLog.add(rid, resourceOperation);
+    }
+
+    public UndoLog getUndoLog() {
+        return undoLog;
+    }
+
+    @Override
     public long getStartingTime() {
         return startingTime;
     }
 
-    public Thread getThread() {
-        return thread;
+    @Override
+    public int getUndoLogSize() {
+        UndoLog log = undoLog;
+        return log == null ? 0 : log.size();
     }
 
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public TransactionPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Aborts the transaction, unless it has been prepared: a prepared transaction has
+     * promised to commit if told to and keeps its resources until then.
+     */
     public void abort() {
-        isAborted = true;
+        state.compareAndSet(ACTIVE, ABORTED);
+    }
+
+    /**
+     * @return `false` if the transaction has already been aborted.
+     */
+    public boolean prepare() {
+        return state.compareAndSet(ACTIVE, PREPARED) || state.get() == PREPARED;
+    }
+
+    public boolean isPrepared() {
+        return state.get() == PREPARED;
+    }
+
+    public boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * Marks the transaction as finished and lets go of its bookkeeping, which may then be
+     * reused by another transaction.
+     */
+    public void finish() {
+        isFinished = true;
+        acquiredResources = null;
+        undoLog = null;
+        memberGrants = null;
+        latestSavepoint = null;
     }
 
     public Semaphore getSemaphore() {
         return semaphore;
     }
 
+    /**
+     * Makes the next `wakeUp` complete the future instead of releasing the semaphore,
+     * for transactions which wait without blocking a thread.
+     */
+    public void setAccessFuture(CompletableFuture<Void> accessFuture) {
+        this.accessFuture = accessFuture;
+    }
+
+    /**
+     * Wakes the transaction up after it has been granted the resource it waited for,
+     * or after it has been aborted.
+     */
+    public void wakeUp() {
+        CompletableFuture<Void> future = accessFuture;
+        if (future != null) {
+            future.complete(null);
+        } else {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * @return resource the transaction is queued for, or `null`.
+     */
+    public ResourceId getWaitingFor() {
+        return waitingFor;
+    }
+
+    public void setWaitingFor(ResourceId waitingFor) {
+        this.waitingFor = waitingFor;
+    }
+
+    /**
+     * Records that the transaction has taken or waited for a resource of the given shard
+     * of the lock table. Called by whoever grants the transaction a resource, which is
+     * never done by two threads at once.
+     */
+    void usedShard(int index) {
+        int current = shard;
+        if (current == NO_SHARD) {
+            shard = index;
+        } else if (current != index) {
+            shard = MANY_SHARDS;
+        }
+    }
+
+    /**
+     * @return the only shard the transaction has used, `NO_SHARD` or `MANY_SHARDS`.
+     */
+    int getShard() {
+        return shard;
+    }
+
+    /**
+     * Marks the transaction as being on the path of the deadlock detection run with the
+     * given epoch. Only accessed by the detecting thread holding the graph's detection lock.
+     */
+    public void mark(long epoch, int depth) {
+        detectionMark = epoch;
+        detectionDepth = depth;
+    }
+
+    public void markDone() {
+        detectionDepth = -1;
+    }
+
+    public boolean isMarked(long epoch) {
+        return detectionMark == epoch;
+    }
+
+    public boolean isOnStack(long epoch) {
+        return detectionMark == epoch && detectionDepth >= 0;
+    }
+
+    public int getMarkDepth() {
+        return detectionDepth;
+    }
+
+    /**
+     * Links the transaction into a `WaitQueue`, or out of it if `queue` is `null`. Links
+     * are only accessed holding the stripe of the resource the transaction waits for.
+     */
+    void linkWait(WaitQueue queue, int waitClass, Transaction prev, Transaction next) {
+        this.waitQueue = queue;
+        this.waitClass = waitClass;
+        this.waitPrev = prev;
+        this.waitNext = next;
+    }
+
+    WaitQueue getWaitQueue() {
+        return waitQueue;
+    }
+
+    int getWaitClass() {
+        return waitClass;
+    }
+
+    Transaction getWaitPrev() {
+        return waitPrev;
+    }
+
+    void setWaitPrev(Transaction waitPrev) {
+        this.waitPrev = waitPrev;
+    }
+
+    Transaction getWaitNext() {
+        return waitNext;
+    }
+
+    void setWaitNext(Transaction waitNext) {
+        this.waitNext = waitNext;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Transaction)) {
             return false;
         }
-        return this.thread.getId() == ((Transaction)obj).thread.getId();
+        return this.id == ((Transaction)obj).id;
     }
 
     @Override
     public int hashCode() {
-        return Long.hashCode(thread.getId());
+        return Long.hashCode(id);
     }
 }
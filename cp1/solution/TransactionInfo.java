@@ -0,0 +1,27 @@
+package cp1.solution;
+
+import cp1.base.TransactionHandle;
+
+/**
+ * What a `DeadlockPolicy` may know about a transaction. The size of the undo log is read
+ * without synchronizing with the transaction's own thread, so it is only a hint.
+ *
+ * @author Resul Hangeldiyev
+ */
+public interface TransactionInfo extends TransactionHandle {
+
+    long getStartingTime();
+
+    int getUndoLogSize();
+
+    /**
+     * @return whether this transaction started before `other`, comparing ids of
+     * transactions started at the same time.
+     */
+    default boolean isOlderThan(TransactionInfo other) {
+        if (getStartingTime() != other.getStartingTime()) {
+            return getStartingTime() < other.getStartingTime();
+        }
+        return getId() < other.getId();
+    }
+}
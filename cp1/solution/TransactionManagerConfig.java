@@ -0,0 +1,286 @@
+package cp1.solution;
+
+import cp1.base.OperationCodec;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional features and tuning of a transaction manager. Instances are immutable and
+ * created with a {@link Builder}; every setting left out of the builder keeps the
+ * behaviour of a manager created without a configuration.
+ *
+ * @author Resul Hangeldiyev
+ */
+public final class TransactionManagerConfig {
+
+    private final Executor asyncExecutor;
+    private final ConcurrencyControl concurrencyControl;
+    private final DeadlockPolicy deadlockPolicy;
+    private final long deadlockDetectionIntervalNanos;
+    private final int maxWaitQueueDepth;
+    private final int lockEscalationThreshold;
+    private final int lockTableShards;
+    private final ForkJoinPool rollbackPool;
+    private final Path stateDirectory;
+    private final OperationCodec operationCodec;
+    private final long logSegmentSize;
+    private final long checkpointIntervalNanos;
+    private final boolean snapshotReads;
+
+    private TransactionManagerConfig(Builder builder) {
+        this.asyncExecutor = builder.asyncExecutor;
+        this.concurrencyControl = builder.concurrencyControl;
+        this.deadlockPolicy = builder.deadlockPolicy;
+        this.deadlockDetectionIntervalNanos = builder.deadlockDetectionIntervalNanos;
+        this.maxWaitQueueDepth = builder.maxWaitQueueDepth;
+        this.lockEscalationThreshold = builder.lockEscalationThreshold;
+        this.lockTableShards = builder.lockTableShards;
+        this.rollbackPool = builder.rollbackPool;
+        this.stateDirectory = builder.stateDirectory;
+        this.operationCodec = builder.operationCodec;
+        this.logSegmentSize = builder.logSegmentSize;
+        this.checkpointIntervalNanos = builder.checkpointIntervalNanos;
+        this.snapshotReads = builder.snapshotReads;
+    }
+
+    public static TransactionManagerConfig defaults() {
+        return new Builder().build();
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public ConcurrencyControl getConcurrencyControl() {
+        return concurrencyControl;
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    /**
+     * @return interval between sweeps of the wait-for graph for deadlocks, or 0 if every
+     * wait searches for a cycle through the waiter.
+     */
+    public long getDeadlockDetectionIntervalNanos() {
+        return deadlockDetectionIntervalNanos;
+    }
+
+    public int getMaxWaitQueueDepth() {
+        return maxWaitQueueDepth;
+    }
+
+    public int getLockEscalationThreshold() {
+        return lockEscalationThreshold;
+    }
+
+    public int getLockTableShards() {
+        return lockTableShards;
+    }
+
+    /**
+     * @return pool undoing long transactions resource by resource in parallel, or `null`
+     * if every rollback is performed by the calling thread.
+     */
+    public ForkJoinPool getRollbackPool() {
+        return rollbackPool;
+    }
+
+    /**
+     * @return directory of the write-ahead log and checkpoints, or `null` if nothing is
+     * persisted.
+     */
+    public Path getStateDirectory() {
+        return stateDirectory;
+    }
+
+    public OperationCodec getOperationCodec() {
+        return operationCodec;
+    }
+
+    public long getLogSegmentSize() {
+        return logSegmentSize;
+    }
+
+    /**
+     * @return interval between periodic checkpoints, or 0 if they are only taken on demand.
+     */
+    public long getCheckpointIntervalNanos() {
+        return checkpointIntervalNanos;
+    }
+
+    public boolean isSnapshotReads() {
+        return snapshotReads;
+    }
+
+    public static final class Builder {
+
+        private Executor asyncExecutor = ForkJoinPool.commonPool();
+        private ConcurrencyControl concurrencyControl = ConcurrencyControl.PESSIMISTIC;
+        private DeadlockPolicy deadlockPolicy = StandardDeadlockPolicy.DETECT_ABORT_YOUNGEST;
+        private long deadlockDetectionIntervalNanos;
+        private int maxWaitQueueDepth = Integer.MAX_VALUE;
+        private int lockEscalationThreshold = Integer.MAX_VALUE;
+        private int lockTableShards = 1;
+        private ForkJoinPool rollbackPool;
+        private Path stateDirectory;
+        private OperationCodec operationCodec;
+        private long logSegmentSize = WriteAheadLog.DEFAULT_SEGMENT_SIZE;
+        private long checkpointIntervalNanos;
+        private boolean snapshotReads;
+
+        /**
+         * Executor running asynchronous operations which had to wait for their resources.
+         */
+        public Builder asyncExecutor(Executor asyncExecutor) {
+            if (asyncExecutor == null) {
+                throw new IllegalArgumentException("Executor must not be null");
+            }
+            this.asyncExecutor = asyncExecutor;
+            return this;
+        }
+
+        public Builder concurrencyControl(ConcurrencyControl concurrencyControl) {
+            if (concurrencyControl == null) {
+                throw new IllegalArgumentException("Concurrency control must not be null");
+            }
+            this.concurrencyControl = concurrencyControl;
+            return this;
+        }
+
+        /**
+         * Policy resolving conflicts of pessimistic transactions.
+         */
+        public Builder deadlockPolicy(DeadlockPolicy deadlockPolicy) {
+            if (deadlockPolicy == null) {
+                throw new IllegalArgumentException("Deadlock policy must not be null");
+            }
+            this.deadlockPolicy = deadlockPolicy;
+            return this;
+        }
+
+        /**
+         * Maximum number of transactions of one priority class waiting for a resource. A
+         * transaction which would exceed it is aborted instead of waiting.
+         */
+        public Builder maxWaitQueueDepth(int depth) {
+            if (depth <= 0) {
+                throw new IllegalArgumentException("Queue depth must be positive");
+            }
+            this.maxWaitQueueDepth = depth;
+            return this;
+        }
+
+        /**
+         * Number of members of a group a pessimistic transaction takes one by one before
+         * the manager tries to lock the whole group for it instead, releasing the members.
+         */
+        public Builder lockEscalationThreshold(int threshold) {
+            if (threshold <= 0) {
+                throw new IllegalArgumentException("Escalation threshold must be positive");
+            }
+            this.lockEscalationThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Makes waits only record what they wait for and leaves breaking deadlocks to a
+         * background thread, which every `interval` finds all the cycles of the wait-for
+         * graph at once and aborts a victim of each chosen by the deadlock policy.
+         * Deadlocked transactions then wait for up to `interval` longer, in exchange for
+         * waits which never search the graph. Has no effect with a policy not detecting
+         * deadlocks.
+         */
+        public Builder deadlockDetectionInterval(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Deadlock detection interval must be positive");
+            }
+            this.deadlockDetectionIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Number of shards the lock table of a pessimistic manager is split into by
+         * resource id. Deadlock detection for transactions using a single shard only
+         * synchronizes with other transactions of that shard.
+         */
+        public Builder lockTableShards(int shards) {
+            if (shards <= 0) {
+                throw new IllegalArgumentException("Number of shards must be positive");
+            }
+            this.lockTableShards = shards;
+            return this;
+        }
+
+        /**
+         * Makes rollbacks of long pessimistic transactions undo the operations of
+         * different resources in parallel on `pool`, releasing every resource as soon as
+         * its own operations have been undone.
+         */
+        public Builder parallelRollback(ForkJoinPool pool) {
+            if (pool == null) {
+                throw new IllegalArgumentException("Pool must not be null");
+            }
+            this.rollbackPool = pool;
+            return this;
+        }
+
+        /**
+         * Makes commits durable: operations of every committing transaction are encoded
+         * with `codec` and appended to a log in `directory`, and the commit returns only
+         * once they are on disk. A new manager first restores its resources from the
+         * last checkpoint and the log found in the directory.
+         */
+        public Builder stateDirectory(Path directory, OperationCodec codec) {
+            if (directory == null || codec == null) {
+                throw new IllegalArgumentException("State directory and codec must not be null");
+            }
+            this.stateDirectory = directory;
+            this.operationCodec = codec;
+            return this;
+        }
+
+        /**
+         * Size after which the write-ahead log continues in a new file.
+         */
+        public Builder logSegmentSize(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Segment size must be positive");
+            }
+            this.logSegmentSize = bytes;
+            return this;
+        }
+
+        /**
+         * Takes a checkpoint of all the resources every `interval`, which bounds the part
+         * of the log replayed by recovery. Requires a state directory.
+         */
+        public Builder checkpointInterval(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Checkpoint interval must be positive");
+            }
+            this.checkpointIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Keeps past versions of resources for `openSnapshot`. Every commit then saves the
+         * state of the resources it has modified, see `Resource.newInstance`.
+         */
+        public Builder snapshotReads() {
+            this.snapshotReads = true;
+            return this;
+        }
+
+        public TransactionManagerConfig build() {
+            if (checkpointIntervalNanos > 0 && stateDirectory == null) {
+                throw new IllegalArgumentException("Checkpoints require a state directory");
+            }
+            return new TransactionManagerConfig(this);
+        }
+    }
+}
@@ -7,11 +7,17 @@
  */
 package cp1.solution;
 
+import cp1.base.AsyncTransactionManager;
 import cp1.base.LocalTimeProvider;
+import cp1.base.OperationCodec;
 import cp1.base.Resource;
 import cp1.base.TransactionManager;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.concurrent.Executor;
 
 /**
  * A factory for instantiating transaction managers.
@@ -37,5 +43,173 @@ public final class TransactionManagerFactory {
 	) {
 		return new TransactionManagerImpl(resources, timeProvider);
 	}
+
+	/**
+	 * Instantiates a transaction manager using
+	 * optimistic concurrency control: transactions
+	 * never wait for resources, and a transaction
+	 * conflicting with one committed before it is
+	 * aborted at commit instead.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newOptimisticTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider
+	) {
+		return new TransactionManagerImpl(
+				resources,
+				timeProvider,
+				new TransactionManagerConfig.Builder()
+						.concurrencyControl(ConcurrencyControl.OPTIMISTIC)
+						.build()
+		);
+	}
+
+	/**
+	 * Instantiates a transaction manager resolving
+	 * conflicts between transactions according to
+	 * a given deadlock policy, e.g. one of
+	 * {@link StandardDeadlockPolicy}.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param policy The deadlock policy.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			DeadlockPolicy policy
+	) {
+		return new TransactionManagerImpl(
+				resources,
+				timeProvider,
+				new TransactionManagerConfig.Builder()
+						.deadlockPolicy(policy)
+						.build()
+		);
+	}
+
+	/**
+	 * Instantiates a transaction manager whose lock
+	 * table is split into a given number of shards
+	 * by resource id. Transactions whose resources
+	 * all fall into one shard never synchronize with
+	 * transactions of other shards.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param shards The number of shards.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static TransactionManager newShardedTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			int shards
+	) {
+		return new TransactionManagerImpl(
+				resources,
+				timeProvider,
+				new TransactionManagerConfig.Builder()
+						.lockTableShards(shards)
+						.build()
+		);
+	}
+
+	/**
+	 * Instantiates a transaction manager whose operations
+	 * never block a thread while waiting for a resource.
+	 * Operations which had to wait are performed by
+	 * the given executor.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param executor Executor running operations that
+	 *     had to wait for their resources.
+	 * @return A new asynchronous transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static AsyncTransactionManager newAsyncTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			Executor executor
+	) {
+		return new TransactionManagerImpl(
+				resources,
+				timeProvider,
+				new TransactionManagerConfig.Builder()
+						.asyncExecutor(executor)
+						.build()
+		);
+	}
+
+	/**
+	 * Instantiates a transaction manager which
+	 * persists committed transactions in a given
+	 * directory. Before the manager is returned,
+	 * the resources are restored to the state
+	 * persisted there by a previous manager.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param stateDirectory Directory for the log
+	 *     and checkpoints.
+	 * @param codec Codec of the resources' ids and
+	 *     operations.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 * @throws java.io.UncheckedIOException If the
+	 *     state could not be restored.
+	 */
+	public final static TransactionManagerImpl newTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			Path stateDirectory,
+			OperationCodec codec
+	) {
+		return new TransactionManagerImpl(
+				resources,
+				timeProvider,
+				new TransactionManagerConfig.Builder()
+						.stateDirectory(stateDirectory, codec)
+						.build()
+		);
+	}
+
+	/**
+	 * Instantiates a transaction manager with
+	 * optional features, e.g. a write-ahead log,
+	 * enabled by a given configuration.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param config The configuration.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 * @throws java.io.UncheckedIOException If the
+	 *     state could not be restored.
+	 */
+	public final static TransactionManagerImpl newTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			TransactionManagerConfig config
+	) {
+		return new TransactionManagerImpl(resources, timeProvider, config);
+	}
+
+	/**
+	 * Exposes statistics of a transaction manager created
+	 * by this factory in the platform MBean server.
+	 * @param tm The transaction manager.
+	 * @param name Name distinguishing the manager.
+	 * @return Name under which the MBean was registered.
+	 * @throws JMException If the registration failed.
+	 */
+	public final static ObjectName registerMBean(
+			TransactionManager tm,
+			String name
+	) throws JMException {
+		return ((TransactionManagerImpl) tm).registerMBean(name);
+	}
 	
 }
@@ -2,51 +2,221 @@ package cp1.solution;
 
 import cp1.base.ActiveTransactionAborted;
 import cp1.base.AnotherTransactionActiveException;
+import cp1.base.AsyncTransactionManager;
 import cp1.base.LocalTimeProvider;
 import cp1.base.NoActiveTransactionException;
 import cp1.base.Resource;
 import cp1.base.ResourceId;
 import cp1.base.ResourceOperation;
 import cp1.base.ResourceOperationException;
+import cp1.base.Savepoint;
+import cp1.base.SnapshotReader;
+import cp1.base.TransactionHandle;
 import cp1.base.TransactionManager;
+import cp1.base.TransactionManagerStats;
+import cp1.base.TransactionPriority;
 import cp1.base.UnknownResourceIdException;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Transaction Manager implementation
  *
+ * Transactions are identified by their handles rather than by threads. The thread-bound
+ * part of the interface only maps the calling thread to the handle of its transaction,
+ * so a handle obtained from `beginTransaction` may be passed between threads freely.
+ *
+ * Depending on the configured `ConcurrencyControl`, transactions either own their
+ * resources through `AllocationGraph`, or run optimistically through
+ * `OptimisticConcurrency` and are validated at commit.
+ *
  * @author Resul Hangeldiyev
  */
-public class TransactionManagerImpl implements TransactionManager {
+public class TransactionManagerImpl implements TransactionManager, AsyncTransactionManager {
+
+    private static final int PARALLEL_ROLLBACK_THRESHOLD = 256;
 
     private final ConcurrentMap<Thread, Transaction> threadTransactionMap;
     private final ConcurrentMap<ResourceId, Resource> resources;
     private final LocalTimeProvider timeProvider;
+    private final AtomicLong transactionIds;
+    private final Executor asyncExecutor;
+    private final ForkJoinPool rollbackPool;
+    private final ThreadLocal<UndoLog> pooledUndoLog;
+    private final ThreadLocal<ResourceSet> pooledResourceSet;
 
     private final AllocationGraph resourceAllocationGraph;
+    private final OptimisticConcurrency optimisticConcurrency;
+    private final VersionStore versionStore;
+    private final Metrics metrics;
+    private final Path stateDirectory;
+    private final WriteAheadLog writeAheadLog;
+    private final Lock checkpointLock;
+    private final Lock registrationLock;
+    private final ScheduledExecutorService checkpointScheduler;
+    private final ScheduledExecutorService deadlockDetector;
 
     public TransactionManagerImpl(Collection<Resource> resources, LocalTimeProvider localTimeProvider) {
+        this(resources, localTimeProvider, TransactionManagerConfig.defaults());
+    }
+
+    public TransactionManagerImpl(Collection<Resource> resources, LocalTimeProvider localTimeProvider,
+                                  TransactionManagerConfig config) {
         this.resources = new ConcurrentHashMap<>();
         for (Resource resource : resources) {
+            if (config.getStateDirectory() != null) {
+                Checkpoint.checkPersistable(resource);
+            }
+            if (config.isSnapshotReads()) {
+                VersionStore.checkVersionable(resource);
+            }
             this.resources.put(resource.getId(), resource);
         }
         this.timeProvider = localTimeProvider;
         this.threadTransactionMap = new ConcurrentHashMap<>();
-        this.resourceAllocationGraph = new AllocationGraph(resources);
+        this.transactionIds = new AtomicLong();
+        this.asyncExecutor = config.getAsyncExecutor();
+        this.rollbackPool = config.getRollbackPool();
+        this.pooledUndoLog = new ThreadLocal<>();
+        this.pooledResourceSet = new ThreadLocal<>();
+        this.metrics = new Metrics();
+        this.resourceAllocationGraph = new AllocationGraph(metrics, config.getDeadlockPolicy(),
+                config.getMaxWaitQueueDepth(), config.getLockEscalationThreshold(),
+                config.getLockTableShards(), config.getDeadlockDetectionIntervalNanos() == 0);
+        this.metrics.setDeadlockDetectionIntervalNanos(config.getDeadlockDetectionIntervalNanos());
+        this.stateDirectory = config.getStateDirectory();
+        this.checkpointLock = new ReentrantLock();
+        this.registrationLock = new ReentrantLock();
+        this.writeAheadLog = stateDirectory == null ? null : recover(config);
+        try {
+            this.versionStore = config.isSnapshotReads() ? new VersionStore(this.resources) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.optimisticConcurrency = config.getConcurrencyControl() == ConcurrencyControl.OPTIMISTIC
+                ? new OptimisticConcurrency(this.resources, versionStore)
+                : null;
+        this.checkpointScheduler = config.getCheckpointIntervalNanos() == 0
+                ? null
+                : scheduleCheckpoints(config.getCheckpointIntervalNanos());
+        this.deadlockDetector = config.getDeadlockDetectionIntervalNanos() == 0
+                || optimisticConcurrency != null
+                || !config.getDeadlockPolicy().detectsDeadlocks()
+                ? null
+                : scheduleDeadlockDetection(config.getDeadlockDetectionIntervalNanos());
+    }
+
+    /**
+     * Restores the resources from the state directory and opens its log for appending.
+     */
+    private WriteAheadLog recover(TransactionManagerConfig config) {
+        try {
+            long checkpointLsn = Recovery.restore(stateDirectory, config.getOperationCodec(), resources);
+            return new WriteAheadLog(stateDirectory, config.getOperationCodec(), config.getLogSegmentSize(),
+                    checkpointLsn);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ScheduledExecutorService scheduleCheckpoints(long intervalNanos) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                // Counted by `checkpoint`. The log still holds every commit; the next
+                // checkpoint tries again.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        return scheduler;
+    }
+
+    private ScheduledExecutorService scheduleDeadlockDetection(long intervalNanos) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "deadlock-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                resourceAllocationGraph.sweepDeadlocks();
+            } catch (RuntimeException e) {
+                // Waits do not detect deadlocks themselves, so the sweeps must go on; the
+                // next one starts from a new snapshot.
+                metrics.deadlockSweepFailed();
+            }
+        }, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        return scheduler;
     }
 
     @Override
     public void startTransaction() throws AnotherTransactionActiveException {
+        startTransaction(TransactionPriority.INTERACTIVE);
+    }
+
+    @Override
+    public void startTransaction(TransactionPriority priority) throws AnotherTransactionActiveException {
         Thread currentThread = Thread.currentThread();
         if (threadTransactionMap.containsKey(currentThread)) {
             throw new AnotherTransactionActiveException();
         }
-        Transaction transaction = new Transaction(currentThread, timeProvider.getTime());
-        threadTransactionMap.put(currentThread, transaction);
+        threadTransactionMap.put(currentThread, newTransaction(priority));
+    }
+
+    @Override
+    public TransactionHandle beginTransaction() {
+        return newTransaction(TransactionPriority.INTERACTIVE);
+    }
+
+    @Override
+    public TransactionHandle beginTransaction(TransactionPriority priority) {
+        return newTransaction(priority);
+    }
+
+    private Transaction newTransaction(TransactionPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Priority must not be null");
+        }
+        metrics.transactionStarted();
+        UndoLog undoLog = pooledUndoLog.get();
+        if (undoLog == null) {
+            return new Transaction(transactionIds.incrementAndGet(), timeProvider.getTime(), priority);
+        }
+        ResourceSet acquiredResources = pooledResourceSet.get();
+        pooledUndoLog.set(null);
+        pooledResourceSet.set(null);
+        return new Transaction(transactionIds.incrementAndGet(), timeProvider.getTime(), priority,
+                acquiredResources, undoLog);
     }
 
     @Override
@@ -56,31 +226,272 @@ public class TransactionManagerImpl implements TransactionManager {
             ActiveTransactionAborted,
             ResourceOperationException,
             InterruptedException {
-        Thread currentThread = Thread.currentThread();
-        if (!threadTransactionMap.containsKey(currentThread)) {
+        operateOnResource(threadTransactionMap.get(Thread.currentThread()), rid, operation);
+    }
+
+    @Override
+    public void operateOnResource(TransactionHandle handle, ResourceId rid, ResourceOperation operation)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+        Transaction transaction = transactionOperatingOn(handle, rid);
+        if (optimisticConcurrency != null) {
+            optimisticConcurrency.operate(transaction, rid, operation);
+            return;
+        }
+        LockMode mode = lockModeOf(operation);
+        while (resourceAllocationGraph.acquire(transaction, rid, mode)) {
+            awaitAccess(transaction, -1);
+        }
+        performOperation(transaction, rid, operation);
+    }
+
+    /**
+     * When the resource is free the operation is performed right away on the calling
+     * thread. Otherwise the transaction is queued with a future instead of sleeping on its
+     * semaphore; `AllocationGraph` completes that future when the resource is handed over
+     * or the transaction is aborted, and the operation then continues on `asyncExecutor`:
+     * after a wait for the group of the resource, it starts over to take the resource.
+     */
+    @Override
+    public CompletableFuture<Void> operateOnResourceAsync(TransactionHandle handle, ResourceId rid,
+                                                          ResourceOperation operation) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Transaction transaction;
+        try {
+            transaction = transactionOperatingOn(handle, rid);
+        } catch (NoActiveTransactionException | UnknownResourceIdException | ActiveTransactionAborted e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        LockMode mode = lockModeOf(operation);
+        if (optimisticConcurrency == null && !transaction.wasAccessAcquiredForResource(rid, mode)) {
+            CompletableFuture<Void> access = new CompletableFuture<>();
+            transaction.setAccessFuture(access);
+            long waitStart = System.nanoTime();
+            if (resourceAllocationGraph.acquire(transaction, rid, mode)) {
+                access.thenRunAsync(() -> {
+                    metrics.waitFinished(System.nanoTime() - waitStart);
+                    transaction.setAccessFuture(null);
+                    if (transaction.isAborted()) {
+                        result.completeExceptionally(new ActiveTransactionAborted());
+                    } else if (!transaction.wasAccessAcquiredForResource(rid, mode)) {
+                        operateOnResourceAsync(handle, rid, operation).whenComplete((ignored, e) -> {
+                            if (e == null) {
+                                result.complete(null);
+                            } else {
+                                result.completeExceptionally(e);
+                            }
+                        });
+                    } else {
+                        completeOperation(result, transaction, rid, operation);
+                    }
+                }, asyncExecutor);
+                return result;
+            }
+            transaction.setAccessFuture(null);
+        }
+        completeOperation(result, transaction, rid, operation);
+        return result;
+    }
+
+    private void completeOperation(CompletableFuture<Void> result, Transaction transaction, ResourceId rid,
+                                   ResourceOperation operation) {
+        try {
+            if (optimisticConcurrency != null) {
+                optimisticConcurrency.operate(transaction, rid, operation);
+            } else {
+                performOperation(transaction, rid, operation);
+            }
+            result.complete(null);
+        } catch (ActiveTransactionAborted | UnknownResourceIdException | ResourceOperationException
+                | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public boolean tryOperateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException {
+        Transaction transaction = transactionOperatingOn(threadTransactionMap.get(Thread.currentThread()), rid);
+        if (optimisticConcurrency != null) {
+            optimisticConcurrency.operate(transaction, rid, operation);
+            return true;
+        }
+        LockMode mode = lockModeOf(operation);
+        if (!resourceAllocationGraph.tryAcquire(transaction, rid, mode)) {
+            return false;
+        }
+        performOperation(transaction, rid, operation);
+        return true;
+    }
+
+    @Override
+    public boolean operateOnResourceInCurrentTransaction(ResourceId rid, ResourceOperation operation,
+                                                         long timeout, TimeUnit unit)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+        Transaction transaction = transactionOperatingOn(threadTransactionMap.get(Thread.currentThread()), rid);
+        if (optimisticConcurrency != null) {
+            optimisticConcurrency.operate(transaction, rid, operation);
+            return true;
+        }
+        LockMode mode = lockModeOf(operation);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (resourceAllocationGraph.acquire(transaction, rid, mode)) {
+            if (!awaitAccess(transaction, Math.max(0, deadline - System.nanoTime()))) {
+                return false;
+            }
+        }
+        performOperation(transaction, rid, operation);
+        return true;
+    }
+
+    @Override
+    public void acquireAllInCurrentTransaction(Collection<ResourceId> rids)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            InterruptedException {
+        Transaction transaction = transactionOperatingOn(threadTransactionMap.get(Thread.currentThread()), rids);
+        if (optimisticConcurrency != null) {
+            // Optimistic transactions own nothing until commit.
+            return;
+        }
+        List<ResourceId> ordered = new ArrayList<>(new TreeSet<>(rids));
+        int next = 0;
+        while ((next = resourceAllocationGraph.acquireAll(transaction, ordered, next, LockMode.EXCLUSIVE))
+                < ordered.size()) {
+            awaitAccess(transaction, -1);
+        }
+    }
+
+    /**
+     * Takes a group in shared or exclusive mode, which covers all its members: the
+     * transaction then operates on them without any further lock table entries.
+     */
+    @Override
+    public void acquireGroupInCurrentTransaction(ResourceId group, boolean exclusive)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            InterruptedException {
+        Transaction transaction = activeTransaction(threadTransactionMap.get(Thread.currentThread()));
+        if (!resourceAllocationGraph.isGroup(group)) {
+            throw new UnknownResourceIdException(group);
+        }
+        if (transaction.isAborted()) {
+            throw new ActiveTransactionAborted();
+        }
+        checkNotPrepared(transaction);
+        if (optimisticConcurrency != null) {
+            // Optimistic transactions own nothing until commit.
+            return;
+        }
+        LockMode mode = exclusive ? LockMode.EXCLUSIVE : LockMode.SHARED;
+        while (resourceAllocationGraph.acquire(transaction, group, mode)) {
+            awaitAccess(transaction, -1);
+        }
+    }
+
+    private Transaction transactionOperatingOn(TransactionHandle handle, ResourceId rid)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted {
+        return transactionOperatingOn(handle, Collections.singletonList(rid));
+    }
+
+    private Transaction transactionOperatingOn(TransactionHandle handle, Collection<ResourceId> rids)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted {
+        Transaction transaction = activeTransaction(handle);
+        for (ResourceId rid : rids) {
+            if (!resources.containsKey(rid)) {
+                throw new UnknownResourceIdException(rid);
+            }
+        }
+        if (transaction.isAborted()) {
+            throw new ActiveTransactionAborted();
+        }
+        checkNotPrepared(transaction);
+        return transaction;
+    }
+
+    private static Transaction activeTransaction(TransactionHandle handle) throws NoActiveTransactionException {
+        if (!(handle instanceof Transaction) || ((Transaction) handle).isFinished()) {
             throw new NoActiveTransactionException();
         }
-        Transaction transaction = threadTransactionMap.get(currentThread);
-        if (!resources.containsKey(rid)) {
-            throw new UnknownResourceIdException(rid);
+        return (Transaction) handle;
+    }
+
+    private static void checkNotPrepared(Transaction transaction) {
+        if (transaction.isPrepared()) {
+            throw new IllegalStateException("Transaction has been prepared");
         }
-        if (threadTransactionMap.get(currentThread).isAborted()) {
+    }
+
+    private static LockMode lockModeOf(ResourceOperation operation) {
+        return operation.isReadOnly() ? LockMode.SHARED : LockMode.EXCLUSIVE;
+    }
+
+    /**
+     * Waits until the resource `transaction` is queued for is handed over to it.
+     * A negative timeout means waiting for as long as it takes. When the timeout expires
+     * the transaction leaves the queue and stays active, unless the resource has been
+     * handed over in the meantime.
+     *
+     * @return whether the access has been granted.
+     */
+    private boolean awaitAccess(Transaction transaction, long timeoutNanos) throws ActiveTransactionAborted,
+            InterruptedException {
+        Thread currentThread = Thread.currentThread();
+        if (transaction.isAborted()) {
+            currentThread.interrupt();
             throw new ActiveTransactionAborted();
         }
-        if (!transaction.wasAccessAcquiredForResource(rid)) {
-            if (resourceAllocationGraph.addEdgeIfNecessary(transaction, rid)) {
-                if (transaction.isAborted()) {
-                    currentThread.interrupt();
-                    throw new ActiveTransactionAborted();
-                }
-                transaction.getSemaphore().acquire();
+        long waitStart = System.nanoTime();
+        if (timeoutNanos < 0) {
+            transaction.getSemaphore().acquire();
+        } else if (!transaction.getSemaphore().tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            if (resourceAllocationGraph.cancelWait(transaction)) {
+                metrics.waitFinished(System.nanoTime() - waitStart);
                 if (transaction.isAborted()) {
                     currentThread.interrupt();
                     throw new ActiveTransactionAborted();
                 }
+                return false;
             }
+            // The resource has just been handed over, its permit is on the way.
+            transaction.getSemaphore().acquireUninterruptibly();
+        }
+        metrics.waitFinished(System.nanoTime() - waitStart);
+        if (transaction.isAborted()) {
+            currentThread.interrupt();
+            throw new ActiveTransactionAborted();
+        }
+        return true;
+    }
+
+    /**
+     * The resource may have been removed while the transaction waited for it, in which
+     * case the transaction holds nothing but an id.
+     */
+    private void performOperation(Transaction transaction, ResourceId rid, ResourceOperation operation)
+            throws UnknownResourceIdException, ResourceOperationException {
+        Resource resource = resources.get(rid);
+        if (resource == null) {
+            throw new UnknownResourceIdException(rid);
         }
-        resources.get(rid).apply(operation);
+        resource.apply(operation);
         transaction.finishedOperationOnTheResource(rid, operation);
     }
 
@@ -88,31 +499,235 @@ public class TransactionManagerImpl implements TransactionManager {
     public void commitCurrentTransaction() throws NoActiveTransactionException,
             ActiveTransactionAborted {
         Thread currentThread = Thread.currentThread();
-        if (!threadTransactionMap.containsKey(currentThread)) {
-            throw new NoActiveTransactionException();
-        }
-        if (threadTransactionMap.get(currentThread).isAborted()) {
+        commitTransaction(threadTransactionMap.get(currentThread));
+        threadTransactionMap.remove(currentThread);
+    }
+
+    /**
+     * With a write-ahead log, the transaction's record is made durable before any of its
+     * resources is released, so a transaction that saw its effects cannot commit ahead of
+     * it in the log. Everything that may fail, saving the states for snapshots included,
+     * happens before the record is appended: if it fails, the commit throws and the
+     * transaction stays active, still holding its resources, to be rolled back.
+     */
+    @Override
+    public void commitTransaction(TransactionHandle handle) throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        Transaction transaction = activeTransaction(handle);
+        if (transaction.isAborted()) {
             throw new ActiveTransactionAborted();
         }
-        Transaction transaction = threadTransactionMap.get(currentThread);
+        if (optimisticConcurrency != null) {
+            if (!optimisticConcurrency.commit(transaction, writeAheadLog)) {
+                transaction.abort();
+                throw new ActiveTransactionAborted();
+            }
+            finish(transaction);
+            metrics.transactionCommitted();
+            return;
+        }
+        VersionStore.Pending versions = versionStore == null
+                ? null
+                : versionStore.save(transaction.getAcquiredResources());
+        if (writeAheadLog != null) {
+            writeAheadLog.commit(transaction.getId(), transaction.getUndoLog());
+        }
+        if (versionStore != null) {
+            versionStore.install(versions);
+        }
         resourceAllocationGraph.removeNode(transaction);
-        threadTransactionMap.remove(currentThread);
+        finish(transaction);
+        metrics.transactionCommitted();
     }
 
     @Override
     public void rollbackCurrentTransaction() {
         Thread currentThread = Thread.currentThread();
-        if (!threadTransactionMap.containsKey(currentThread)) {
+        Transaction transaction = threadTransactionMap.get(currentThread);
+        if (transaction == null) {
             return;
         }
-        Transaction transaction = threadTransactionMap.get(currentThread);
-        List<ResourceOperation> finishedOperations = transaction.getFinishedOperations();
-        List<ResourceId> operatedResources = transaction.getOperatedResources();
-        for (int i = finishedOperations.size() - 1; i >= 0; i--) {
-            resources.get(operatedResources.get(i)).unapply(finishedOperations.get(i));
+        rollbackTransaction(transaction);
+        threadTransactionMap.remove(currentThread);
+    }
+
+    @Override
+    public void rollbackTransaction(TransactionHandle handle) {
+        if (!(handle instanceof Transaction) || ((Transaction) handle).isFinished()) {
+            return;
+        }
+        Transaction transaction = (Transaction) handle;
+        if (optimisticConcurrency != null) {
+            // Nothing has been applied yet.
+            finish(transaction);
+            metrics.transactionRolledBack(transaction.isAborted(), 0);
+            return;
+        }
+        UndoLog undoLog = transaction.getUndoLog();
+        int undone = undoLog.size();
+        if (rollbackPool != null && undone >= PARALLEL_ROLLBACK_THRESHOLD) {
+            undoInParallel(transaction, undoLog);
+        } else {
+            for (int i = undone - 1; i >= 0; i--) {
+                resources.get(undoLog.resourceAt(i)).unapply(undoLog.operationAt(i));
+            }
         }
         resourceAllocationGraph.removeNode(transaction);
-        threadTransactionMap.remove(currentThread);
+        finish(transaction);
+        metrics.transactionRolledBack(transaction.isAborted(), undone);
+    }
+
+    /**
+     * A transaction of a pessimistic manager already holds everything it needs to commit,
+     * so preparing it only makes it immune to aborts. The promise is not logged: after a
+     * crash, recovery knows nothing of prepared transactions.
+     */
+    @Override
+    public void prepareTransaction(TransactionHandle handle) throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        Transaction transaction = activeTransaction(handle);
+        if (optimisticConcurrency != null) {
+            throw new IllegalStateException("Optimistic transactions cannot be prepared");
+        }
+        if (!transaction.prepare()) {
+            throw new ActiveTransactionAborted();
+        }
+    }
+
+    @Override
+    public void abortTransaction(TransactionHandle handle) {
+        if (!(handle instanceof Transaction) || ((Transaction) handle).isFinished()) {
+            return;
+        }
+        Transaction transaction = (Transaction) handle;
+        transaction.abort();
+        if (transaction.isAborted()) {
+            transaction.wakeUp();
+        }
+    }
+
+    /**
+     * @return edges from waiting transactions to the holders of the resources they wait
+     * for, for detection of deadlocks spanning several managers.
+     */
+    public List<WaitForEdge> getWaitForEdges() {
+        List<WaitForEdge> edges = new ArrayList<>();
+        if (optimisticConcurrency == null) {
+            resourceAllocationGraph.collectWaitForEdges(edges);
+        }
+        return edges;
+    }
+
+    @Override
+    public Savepoint setSavepointInCurrentTransaction() throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        return setSavepoint(threadTransactionMap.get(Thread.currentThread()));
+    }
+
+    @Override
+    public Savepoint setSavepoint(TransactionHandle handle) throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        Transaction transaction = activeTransaction(handle);
+        if (transaction.isAborted()) {
+            throw new ActiveTransactionAborted();
+        }
+        TransactionSavepoint savepoint = new TransactionSavepoint(transaction, transaction.getLatestSavepoint(),
+                transaction.getUndoLog().size(), transaction.getAcquiredResources().size());
+        transaction.setLatestSavepoint(savepoint);
+        return savepoint;
+    }
+
+    @Override
+    public void rollbackCurrentTransactionToSavepoint(Savepoint savepoint, boolean releaseResources)
+            throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        rollbackToSavepoint(threadTransactionMap.get(Thread.currentThread()), savepoint, releaseResources);
+    }
+
+    /**
+     * Only the tail of the undo log written since the savepoint is undone. An aborted
+     * transaction cannot be saved this way, as the conflict it has been aborted for may
+     * involve resources it acquired before the savepoint. Optimistic transactions have
+     * applied nothing and hold nothing, so they only forget their operations and reads
+     * since the savepoint.
+     */
+    @Override
+    public void rollbackToSavepoint(TransactionHandle handle, Savepoint savepoint, boolean releaseResources)
+            throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        Transaction transaction = activeTransaction(handle);
+        if (transaction.isAborted()) {
+            throw new ActiveTransactionAborted();
+        }
+        checkNotPrepared(transaction);
+        TransactionSavepoint target = transaction.getLatestSavepoint();
+        while (target != null && target != savepoint) {
+            target = target.getPrevious();
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("Savepoint does not belong to the transaction");
+        }
+        UndoLog undoLog = transaction.getUndoLog();
+        if (optimisticConcurrency != null) {
+            transaction.getAcquiredResources().truncate(target.getResources());
+        } else {
+            for (int i = undoLog.size() - 1; i >= target.getOperations(); i--) {
+                resources.get(undoLog.resourceAt(i)).unapply(undoLog.operationAt(i));
+            }
+            if (releaseResources) {
+                resourceAllocationGraph.releaseSince(transaction, target.getResources());
+            }
+        }
+        undoLog.truncate(target.getOperations());
+        transaction.setLatestSavepoint(target);
+    }
+
+    /**
+     * Operations on different resources are independent, so only the operations of each
+     * resource have to be undone in reverse order. Every resource is undone by a task of
+     * `rollbackPool` and handed to its waiters right afterwards, while the rest is still
+     * being undone. The operations of a resource are chained through `previous`, which
+     * partitions the log without copying it. Resources the transaction has only read, and
+     * groups, are released by the final `removeNode`.
+     */
+    private void undoInParallel(Transaction transaction, UndoLog undoLog) {
+        int[] previous = new int[undoLog.size()];
+        Map<ResourceId, Integer> last = new HashMap<>();
+        for (int i = 0; i < undoLog.size(); i++) {
+            Integer before = last.put(undoLog.resourceAt(i), i);
+            previous[i] = before == null ? -1 : before;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(last.size());
+        for (Map.Entry<ResourceId, Integer> chain : last.entrySet()) {
+            ResourceId rid = chain.getKey();
+            int head = chain.getValue();
+            tasks.add(rollbackPool.submit(() -> {
+                Resource resource = resources.get(rid);
+                for (int i = head; i >= 0; i = previous[i]) {
+                    resource.unapply(undoLog.operationAt(i));
+                }
+                resourceAllocationGraph.releaseResource(transaction, rid);
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * Finishes a transaction which no longer holds nor waits for anything, and keeps its
+     * bookkeeping for the next transaction started by the calling thread.
+     */
+    private void finish(Transaction transaction) {
+        ResourceSet acquiredResources = transaction.getAcquiredResources();
+        UndoLog undoLog = transaction.getUndoLog();
+        transaction.finish();
+        if (pooledUndoLog.get() == null) {
+            acquiredResources.clear();
+            undoLog.clear();
+            pooledResourceSet.set(acquiredResources);
+            pooledUndoLog.set(undoLog);
+        }
     }
 
     @Override
@@ -122,7 +737,288 @@ public class TransactionManagerImpl implements TransactionManager {
 
     @Override
     public boolean isTransactionAborted() {
-        return threadTransactionMap.containsKey(Thread.currentThread())
-                && threadTransactionMap.get(Thread.currentThread()).isAborted();
+        return isTransactionAborted(threadTransactionMap.get(Thread.currentThread()));
+    }
+
+    @Override
+    public SnapshotReader openSnapshot() {
+        if (versionStore == null) {
+            throw new IllegalStateException("Manager does not keep versions for snapshot reads");
+        }
+        return versionStore.open();
+    }
+
+    @Override
+    public TransactionManagerStats getStats() {
+        return metrics.snapshot();
+    }
+
+    public ObjectName registerMBean(String name) throws JMException {
+        return metrics.registerMBean(name);
+    }
+
+    /**
+     * Adds a resource, starting from its current state. Snapshots opened before do not see
+     * it.
+     */
+    @Override
+    public boolean registerResource(Resource resource) {
+        return registerResource(resource, null);
+    }
+
+    @Override
+    public boolean registerResource(Resource resource, ResourceId group) {
+        registrationLock.lock();
+        try {
+            if (resources.containsKey(resource.getId())) {
+                return false;
+            }
+            if (resourceAllocationGraph.isGroup(resource.getId())
+                    || (group != null && resources.containsKey(group))) {
+                throw new IllegalArgumentException("Ids of groups and resources must be distinct");
+            }
+            if (stateDirectory != null) {
+                Checkpoint.checkPersistable(resource);
+            }
+            if (versionStore != null) {
+                VersionStore.checkVersionable(resource);
+                versionStore.register(resource);
+            }
+            if (group != null) {
+                resourceAllocationGraph.joinGroup(resource.getId(), group);
+            }
+            if (optimisticConcurrency != null) {
+                optimisticConcurrency.register(resource.getId());
+            }
+            resources.put(resource.getId(), resource);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            registrationLock.unlock();
+        }
+    }
+
+    /**
+     * In pessimistic mode the resource is taken exclusively, like by a checkpoint, and
+     * removed while held, so no transaction has operated on it uncommitted. Transactions
+     * queued for it meanwhile are handed just its id. In optimistic mode transactions
+     * which have accessed it abort. `registrationLock` is never held while waiting for
+     * a transaction.
+     */
+    @Override
+    public boolean unregisterResource(ResourceId rid) throws InterruptedException {
+        if (!resources.containsKey(rid)) {
+            return false;
+        }
+        if (optimisticConcurrency != null) {
+            registrationLock.lock();
+            try {
+                if (!resources.containsKey(rid)) {
+                    return false;
+                }
+                optimisticConcurrency.unregister(rid);
+                resourceAllocationGraph.leaveGroup(rid);
+                metrics.resourceRemoved(rid);
+                return true;
+            } finally {
+                registrationLock.unlock();
+            }
+        }
+        Transaction transaction = holdAll(Collections.singletonList(rid), LockMode.EXCLUSIVE);
+        try {
+            registrationLock.lock();
+            try {
+                if (!resources.containsKey(rid)) {
+                    return false;
+                }
+                if (versionStore != null) {
+                    versionStore.unregister(rid);
+                }
+                resources.remove(rid);
+                resourceAllocationGraph.leaveGroup(rid);
+                metrics.resourceRemoved(rid);
+                return true;
+            } finally {
+                registrationLock.unlock();
+            }
+        } finally {
+            release(transaction);
+        }
+    }
+
+    /**
+     * Writes the state of all the resources to the state directory and deletes what is no
+     * longer needed for recovery. In pessimistic mode the checkpoint runs as a transaction
+     * taking shared access to every resource in the order of ids, so it observes no
+     * transaction half done; it starts with the smallest possible time and is therefore
+     * never chosen as a victim by a policy preferring older transactions. States are
+     * copied while the resources are held and written to disk after they are released.
+     *
+     * Resources removed meanwhile are left out. A resource registered meanwhile may have
+     * operations logged before the checkpoint's position, so the checkpoint starts over.
+     * A failed checkpoint is counted in the statistics.
+     */
+    public void checkpoint() throws IOException, InterruptedException {
+        if (writeAheadLog == null) {
+            throw new IllegalStateException("Manager has no state directory");
+        }
+        checkpointLock.lock();
+        try {
+            takeCheckpoint();
+        } catch (IOException | RuntimeException e) {
+            metrics.checkpointFailed();
+            throw e;
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void takeCheckpoint() throws IOException, InterruptedException {
+        while (true) {
+            List<ResourceId> ordered = new ArrayList<>(new TreeSet<>(resources.keySet()));
+            List<ResourceId> present = new ArrayList<>(ordered.size());
+            List<byte[]> states = new ArrayList<>(ordered.size());
+            long lsn = optimisticConcurrency != null
+                    ? snapshotOptimistic(ordered, present, states)
+                    : snapshot(ordered, present, states);
+            if (lsn >= 0) {
+                new Checkpoint(lsn, present, states).write(stateDirectory, writeAheadLog.getCodec());
+                writeAheadLog.truncate(lsn);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies states of the resources still present to `states`, and their ids to
+     * `present`, holding all of them at once.
+     *
+     * @return position of the log the states correspond to, or -1 if a resource not in
+     * `ordered` has been registered.
+     */
+    private long snapshot(List<ResourceId> ordered, List<ResourceId> present, List<byte[]> states)
+            throws IOException, InterruptedException {
+        Transaction transaction = holdAll(ordered, LockMode.SHARED);
+        try {
+            // Every transaction logged so far has released its resources, so its
+            // effects are part of the states.
+            long lsn = writeAheadLog.position();
+            if (registeredSince(ordered)) {
+                return -1;
+            }
+            copyStates(ordered, present, states);
+            return lsn;
+        } finally {
+            release(transaction);
+        }
+    }
+
+    /**
+     * Checked after the position of the log has been read: a resource registered later
+     * has nothing logged before it.
+     */
+    private boolean registeredSince(List<ResourceId> ordered) {
+        for (ResourceId rid : resources.keySet()) {
+            if (Collections.binarySearch(ordered, rid) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void copyStates(List<ResourceId> ordered, List<ResourceId> present, List<byte[]> states)
+            throws IOException {
+        for (ResourceId rid : ordered) {
+            Resource resource = resources.get(rid);
+            if (resource != null) {
+                present.add(rid);
+                states.add(Checkpoint.stateOf(resource));
+            }
+        }
+    }
+
+    /**
+     * Starts an internal transaction and acquires the given resources in the order of
+     * ids. The allocation graph never aborts it: it is left out of victim selection and
+     * queue bounds, and a prevention policy aborts the other transaction of a conflict
+     * instead, so a user transaction deadlocked with it is always the one to go.
+     *
+     * @return the transaction, to be passed to {@link #release}.
+     */
+    private Transaction holdAll(List<ResourceId> ordered, LockMode mode) throws InterruptedException {
+        Transaction transaction = Transaction.internal(transactionIds.incrementAndGet());
+        boolean held = false;
+        try {
+            int next = 0;
+            while ((next = resourceAllocationGraph.acquireAll(transaction, ordered, next, mode))
+                    < ordered.size()) {
+                awaitAccess(transaction, -1);
+            }
+            held = true;
+            return transaction;
+        } catch (ActiveTransactionAborted e) {
+            throw new AssertionError("Internal transaction aborted", e);
+        } finally {
+            if (!held) {
+                release(transaction);
+            }
+        }
+    }
+
+    private void release(Transaction transaction) {
+        resourceAllocationGraph.removeNode(transaction);
+        transaction.finish();
+    }
+
+    /**
+     * Like {@link #snapshot}, but holds the latches optimistic committers apply their
+     * modifications under.
+     */
+    private long snapshotOptimistic(List<ResourceId> ordered, List<ResourceId> present, List<byte[]> states)
+            throws IOException {
+        long[] stamps = optimisticConcurrency.lockAll(ordered);
+        try {
+            long lsn = writeAheadLog.position();
+            if (registeredSince(ordered)) {
+                return -1;
+            }
+            copyStates(ordered, present, states);
+            return lsn;
+        } finally {
+            optimisticConcurrency.unlockAll(ordered, stamps);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        stop(deadlockDetector);
+        stop(checkpointScheduler);
+        if (writeAheadLog != null) {
+            try {
+                writeAheadLog.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static void stop(ScheduledExecutorService scheduler) {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isTransactionAborted(TransactionHandle handle) {
+        return handle instanceof Transaction
+                && !((Transaction) handle).isFinished()
+                && ((Transaction) handle).isAborted();
     }
-}
\ No newline at end of file
+}
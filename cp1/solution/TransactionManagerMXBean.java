@@ -0,0 +1,39 @@
+package cp1.solution;
+
+/**
+ * JMX view of a transaction manager's statistics, see `TransactionManagerStats`.
+ *
+ * @author Resul Hangeldiyev
+ */
+public interface TransactionManagerMXBean {
+
+    long getStartedTransactions();
+
+    long getCommittedTransactions();
+
+    long getRolledBackTransactions();
+
+    long getAbortedTransactions();
+
+    long getWaits();
+
+    long getDeadlocks();
+
+    long getDeadlockSweeps();
+
+    long getFailedDeadlockSweeps();
+
+    long getDeadlockDetectionIntervalNanos();
+
+    long getFailedCheckpoints();
+
+    long getWaitTimeP50Nanos();
+
+    long getWaitTimeP99Nanos();
+
+    long getWaitTimeMaxNanos();
+
+    long getRollbackLengthP99();
+
+    String[] getHottestResources();
+}
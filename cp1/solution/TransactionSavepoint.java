@@ -0,0 +1,48 @@
+package cp1.solution;
+
+import cp1.base.Savepoint;
+
+/**
+ * A savepoint is just the lengths of the transaction's undo log and resource set at the
+ * time it was set, as both only grow at their ends. Savepoints of a transaction form a
+ * stack through `previous`, so rolling back to one drops those set after it.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class TransactionSavepoint implements Savepoint {
+
+    private final Transaction transaction;
+    private final TransactionSavepoint previous;
+    private final int operations;
+    private final int resources;
+
+    TransactionSavepoint(Transaction transaction, TransactionSavepoint previous, int operations, int resources) {
+        this.transaction = transaction;
+        this.previous = previous;
+        this.operations = operations;
+        this.resources = resources;
+    }
+
+    @Override
+    public long getTransactionId() {
+        return transaction.getId();
+    }
+
+    TransactionSavepoint getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return number of operations in the undo log when the savepoint was set.
+     */
+    int getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return number of resources in the resource set when the savepoint was set.
+     */
+    int getResources() {
+        return resources;
+    }
+}
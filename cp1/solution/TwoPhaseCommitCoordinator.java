@@ -0,0 +1,276 @@
+package cp1.solution;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.UnknownResourceIdException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs transactions spanning several transaction managers, each reached through a
+ * `Participant`, and commits them with the two-phase commit protocol: every branch is
+ * prepared first, and only once all of them have promised to commit are they told to.
+ * A branch which cannot be prepared makes the coordinator roll back all of them.
+ *
+ * Every manager only detects cycles among its own transactions, so a deadlock through
+ * branches at different managers is found by `detectDeadlocks`, which collects the
+ * wait-for edges of all participants, joins the branches of each distributed transaction
+ * into one vertex and aborts the youngest distributed transaction of every cycle. The
+ * edges of different participants are collected at different moments, so a cycle found
+ * may already have been broken, and its victim is then aborted needlessly. A real
+ * deadlock persists and is found by the next run at the latest. Runs are left to the
+ * caller to schedule.
+ *
+ * The decision is not logged, so a coordinator failing between the phases leaves the
+ * prepared branches holding their resources. A participant failing to commit only
+ * leaves its own branch behind.
+ *
+ * @author Resul Hangeldiyev
+ */
+public final class TwoPhaseCommitCoordinator {
+
+    private final List<Participant> participants;
+    private final List<ConcurrentMap<Long, DistributedTransaction>> branchOwners;
+    private final AtomicLong transactionIds;
+    private final Lock detectionLock;
+
+    public TwoPhaseCommitCoordinator(List<Participant> participants) {
+        this.participants = new ArrayList<>(participants);
+        this.branchOwners = new ArrayList<>();
+        this.transactionIds = new AtomicLong();
+        this.detectionLock = new ReentrantLock();
+        for (int i = 0; i < participants.size(); i++) {
+            branchOwners.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    public DistributedTransaction begin() {
+        return new DistributedTransaction(transactionIds.incrementAndGet(), participants.size());
+    }
+
+    /**
+     * Performs the operation at the participant with the given index, starting a branch
+     * there first if the transaction has none yet.
+     */
+    public void operate(DistributedTransaction transaction, int participant, ResourceId rid,
+                        ResourceOperation operation)
+            throws NoActiveTransactionException,
+            UnknownResourceIdException,
+            ActiveTransactionAborted,
+            ResourceOperationException,
+            InterruptedException {
+        checkActive(transaction);
+        long branch = transaction.branchAt(participant);
+        if (branch == DistributedTransaction.NO_BRANCH) {
+            branch = participants.get(participant).begin();
+            transaction.setBranch(participant, branch);
+            branchOwners.get(participant).put(branch, transaction);
+            // A detection run which has aborted the transaction meanwhile missed the branch.
+            if (transaction.isAborted()) {
+                participants.get(participant).abort(branch);
+            }
+        }
+        participants.get(participant).operate(branch, rid, operation);
+    }
+
+    /**
+     * Once every branch has been prepared, every one of them is told to commit, even if
+     * some participant fails to, and the transaction is finished.
+     *
+     * @throws ActiveTransactionAborted If a branch could not be prepared, in which case
+     *     the transaction has been rolled back everywhere. The participant's failure is
+     *     its cause.
+     * @throws RuntimeException The failure of the first participant which has failed to
+     *     commit its branch, with those of the others suppressed. Its branch may be left
+     *     prepared; the other branches have been committed.
+     */
+    public void commit(DistributedTransaction transaction) throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        checkActive(transaction);
+        try {
+            for (int i = 0; i < participants.size(); i++) {
+                long branch = transaction.branchAt(i);
+                if (branch != DistributedTransaction.NO_BRANCH) {
+                    participants.get(i).prepare(branch);
+                }
+            }
+        } catch (NoActiveTransactionException | ActiveTransactionAborted | RuntimeException e) {
+            rollback(transaction);
+            ActiveTransactionAborted aborted = new ActiveTransactionAborted();
+            aborted.initCause(e);
+            throw aborted;
+        }
+        RuntimeException failure = null;
+        for (int i = 0; i < participants.size(); i++) {
+            long branch = transaction.branchAt(i);
+            if (branch == DistributedTransaction.NO_BRANCH) {
+                continue;
+            }
+            try {
+                participants.get(i).commit(branch);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            } finally {
+                branchOwners.get(i).remove(branch);
+            }
+        }
+        transaction.finish();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void rollback(DistributedTransaction transaction) {
+        if (transaction.isFinished()) {
+            return;
+        }
+        for (int i = 0; i < participants.size(); i++) {
+            long branch = transaction.branchAt(i);
+            if (branch != DistributedTransaction.NO_BRANCH) {
+                participants.get(i).rollback(branch);
+                branchOwners.get(i).remove(branch);
+            }
+        }
+        transaction.finish();
+    }
+
+    /**
+     * @return number of transactions aborted to break deadlocks.
+     */
+    public int detectDeadlocks() {
+        detectionLock.lock();
+        try {
+            Map<Object, List<Object>> waitsFor = new HashMap<>();
+            for (int i = 0; i < participants.size(); i++) {
+                for (WaitForEdge edge : participants.get(i).getWaitForEdges()) {
+                    waitsFor.computeIfAbsent(vertex(i, edge.getWaiterId()), v -> new ArrayList<>())
+                            .add(vertex(i, edge.getHolderId()));
+                }
+            }
+            int victims = 0;
+            List<Object> cycle;
+            while ((cycle = findCycle(waitsFor)) != null) {
+                DistributedTransaction victim = null;
+                for (Object vertex : cycle) {
+                    if (vertex instanceof DistributedTransaction
+                            && (victim == null || ((DistributedTransaction) vertex).getId() > victim.getId())) {
+                        victim = (DistributedTransaction) vertex;
+                    }
+                }
+                if (victim == null) {
+                    // Left to the participant's own detection.
+                    waitsFor.remove(cycle.get(0));
+                    continue;
+                }
+                waitsFor.remove(victim);
+                abort(victim);
+                victims++;
+            }
+            return victims;
+        } finally {
+            detectionLock.unlock();
+        }
+    }
+
+    private void abort(DistributedTransaction victim) {
+        victim.abort();
+        for (int i = 0; i < participants.size(); i++) {
+            for (Map.Entry<Long, DistributedTransaction> branch : branchOwners.get(i).entrySet()) {
+                if (branch.getValue() == victim) {
+                    participants.get(i).abort(branch.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Branches of distributed transactions are represented by the distributed transaction,
+     * other transactions of participants by themselves.
+     */
+    private Object vertex(int participant, long transactionId) {
+        DistributedTransaction owner = branchOwners.get(participant).get(transactionId);
+        return owner != null ? owner : new LocalTransaction(participant, transactionId);
+    }
+
+    private static List<Object> findCycle(Map<Object, List<Object>> waitsFor) {
+        Map<Object, Boolean> onPath = new HashMap<>();
+        List<Object> path = new ArrayList<>();
+        for (Object start : waitsFor.keySet()) {
+            List<Object> cycle = findCycle(start, waitsFor, onPath, path);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    private static List<Object> findCycle(Object current, Map<Object, List<Object>> waitsFor,
+                                          Map<Object, Boolean> onPath, List<Object> path) {
+        Boolean visiting = onPath.get(current);
+        if (visiting != null) {
+            return visiting ? new ArrayList<>(path.subList(path.indexOf(current), path.size())) : null;
+        }
+        onPath.put(current, true);
+        path.add(current);
+        for (Object next : waitsFor.getOrDefault(current, Collections.emptyList())) {
+            List<Object> cycle = findCycle(next, waitsFor, onPath, path);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        path.remove(path.size() - 1);
+        onPath.put(current, false);
+        return null;
+    }
+
+    private static void checkActive(DistributedTransaction transaction) throws NoActiveTransactionException,
+            ActiveTransactionAborted {
+        if (transaction == null || transaction.isFinished()) {
+            throw new NoActiveTransactionException();
+        }
+        if (transaction.isAborted()) {
+            throw new ActiveTransactionAborted();
+        }
+    }
+
+    private static final class LocalTransaction {
+
+        private final int participant;
+        private final long id;
+
+        LocalTransaction(int participant, long id) {
+            this.participant = participant;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LocalTransaction)) {
+                return false;
+            }
+            LocalTransaction other = (LocalTransaction) obj;
+            return participant == other.participant && id == other.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * participant + Long.hashCode(id);
+        }
+    }
+}
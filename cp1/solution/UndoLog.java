@@ -0,0 +1,66 @@
+package cp1.solution;
+
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+
+import java.util.Arrays;
+
+/**
+ * Operations performed by a transaction, in order. Every entry is a resource id followed
+ * by the operation in a single array, so recording an operation does not allocate once
+ * the log has grown. A log is cleared and reused by the next transaction of the same
+ * thread; very long logs are trimmed back on `clear` so a pooled log does not pin memory.
+ *
+ * @author Resul Hangeldiyev
+ */
+public class UndoLog {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+
+    private Object[] entries;
+    private int size;
+
+    public UndoLog() {
+        this.entries = new Object[2 * INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    public void add(ResourceId rid, ResourceOperation operation) {
+        if (2 * size == entries.length) {
+            entries = Arrays.copyOf(entries, 2 * entries.length);
+        }
+        entries[2 * size] = rid;
+        entries[2 * size + 1] = operation;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ResourceId resourceAt(int i) {
+        return (ResourceId) entries[2 * i];
+    }
+
+    public ResourceOperation operationAt(int i) {
+        return (ResourceOperation) entries[2 * i + 1];
+    }
+
+    /**
+     * Drops the operations recorded after the first `size` ones.
+     */
+    public void truncate(int size) {
+        Arrays.fill(entries, 2 * size, 2 * this.size, null);
+        this.size = size;
+    }
+
+    public void clear() {
+        if (entries.length > 2 * MAX_RETAINED_CAPACITY) {
+            entries = new Object[2 * INITIAL_CAPACITY];
+        } else {
+            Arrays.fill(entries, 0, 2 * size, null);
+        }
+        size = 0;
+    }
+}
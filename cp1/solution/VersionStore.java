@@ -0,0 +1,315 @@
+package cp1.solution;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.SnapshotReader;
+import cp1.base.UnknownResourceIdException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Past states of resources, kept for snapshot reads. Every commit modifying resources
+ * gets the next number of a logical commit sequence and stores the states it left the
+ * resources in, saved through `Resource.saveState`, as their newest versions. A snapshot
+ * is just a number of that sequence: it reads the newest version of a resource not
+ * newer than itself, restored into a copy of the resource made by
+ * `Resource.newInstance`. The local time of transactions is not fine-grained enough to
+ * order commits, hence the separate sequence.
+ *
+ * Versions of a resource form a list from the newest one, which readers walk without
+ * any lock. Installing versions and opening a snapshot are serialized by a short lock,
+ * so a snapshot sees either all or none of the versions of a commit. Open snapshots
+ * are kept in a skip list ordered by their numbers; a version older than the newest one
+ * visible to the oldest open snapshot is unreachable by any snapshot and is cut off,
+ * when the resource is modified again or when the oldest snapshot is closed.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class VersionStore {
+
+    private static final class Version {
+        private final long sequence;
+        private final byte[] state;
+        private volatile Version older;
+        private volatile Resource restored;
+
+        private Version(long sequence, byte[] state, Version older) {
+            this.sequence = sequence;
+            this.state = state;
+            this.older = older;
+        }
+    }
+
+    private final ConcurrentMap<ResourceId, Resource> resources;
+    private final ConcurrentMap<ResourceId, Version> newest;
+    private final ConcurrentSkipListSet<Snapshot> openSnapshots;
+    private final Set<ResourceId> withOlderVersions;
+    private final AtomicLong snapshotIds;
+    private final Lock lock;
+    // Written only under `lock`.
+    private volatile long sequence;
+
+    VersionStore(ConcurrentMap<ResourceId, Resource> resources) throws IOException {
+        this.resources = resources;
+        this.newest = new ConcurrentHashMap<>();
+        this.openSnapshots = new ConcurrentSkipListSet<>();
+        this.withOlderVersions = ConcurrentHashMap.newKeySet();
+        this.snapshotIds = new AtomicLong();
+        this.lock = new ReentrantLock();
+        for (Resource resource : resources.values()) {
+            newest.put(resource.getId(), new Version(0, Checkpoint.stateOf(resource), null));
+        }
+    }
+
+    /**
+     * Versions saved by a committing transaction, installed only once its commit cannot
+     * fail any more.
+     */
+    static final class Pending {
+        private final ResourceId[] written;
+        private final byte[][] states;
+
+        private Pending(ResourceId[] written, byte[][] states) {
+            this.written = written;
+            this.states = states;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if `resource` does not override
+     * `Resource.newInstance`, `Resource.saveState` and `Resource.restoreState`, so its
+     * versions could never be read.
+     */
+    static void checkVersionable(Resource resource) {
+        if (!Checkpoint.overrides(resource, "newInstance")
+                || !Checkpoint.overrides(resource, "saveState", DataOutput.class)
+                || !Checkpoint.overrides(resource, "restoreState", DataInput.class)) {
+            throw new IllegalArgumentException("Resource " + resource.getId()
+                    + " must override newInstance, saveState and restoreState to be read in snapshots");
+        }
+    }
+
+    /**
+     * Saves the current states of resources modified by a committing transaction, which
+     * still holds them exclusively. Read-only holdings of `accessed` are skipped. Nothing
+     * is visible to snapshots until the result is passed to {@link #install}.
+     *
+     * @return `null` if no resource has been modified.
+     * @throws IllegalStateException if saving a state has failed.
+     */
+    Pending save(ResourceSet accessed) {
+        int writes = 0;
+        for (int i = 0; i < accessed.size(); i++) {
+            if (isWritten(accessed, i)) {
+                writes++;
+            }
+        }
+        if (writes == 0) {
+            return null;
+        }
+        ResourceId[] written = new ResourceId[writes];
+        byte[][] states = new byte[writes][];
+        try {
+            for (int i = 0, j = 0; i < accessed.size(); i++) {
+                if (isWritten(accessed, i)) {
+                    written[j] = accessed.idAt(i);
+                    states[j++] = Checkpoint.stateOf(resources.get(accessed.idAt(i)));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Saving the state of a resource has failed", e);
+        }
+        return new Pending(written, states);
+    }
+
+    /**
+     * Stores versions saved by {@link #save} as the newest ones, under the next number
+     * of the commit sequence.
+     */
+    void install(Pending pending) {
+        if (pending == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            long next = sequence + 1;
+            long oldestVisible = oldestVisible(next);
+            for (int i = 0; i < pending.written.length; i++) {
+                ResourceId rid = pending.written[i];
+                Version version = new Version(next, pending.states[i], newest.get(rid));
+                newest.put(rid, version);
+                prune(rid, version, oldestVisible);
+            }
+            sequence = next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Groups held exclusively are skipped, their members are recorded on their own.
+     */
+    private boolean isWritten(ResourceSet accessed, int i) {
+        return accessed.modeAt(i) == LockMode.EXCLUSIVE && resources.containsKey(accessed.idAt(i));
+    }
+
+    /**
+     * Adds a resource with its current state as a version newer than every open snapshot,
+     * which therefore do not see it.
+     */
+    void register(Resource resource) throws IOException {
+        byte[] state = Checkpoint.stateOf(resource);
+        lock.lock();
+        try {
+            long next = sequence + 1;
+            newest.put(resource.getId(), new Version(next, state, null));
+            sequence = next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all the versions of a resource, which open snapshots cannot read any more.
+     */
+    void unregister(ResourceId rid) {
+        lock.lock();
+        try {
+            newest.remove(rid);
+            withOlderVersions.remove(rid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    SnapshotReader open() {
+        lock.lock();
+        try {
+            Snapshot snapshot = new Snapshot(sequence, snapshotIds.incrementAndGet());
+            openSnapshots.add(snapshot);
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void close(Snapshot snapshot) {
+        lock.lock();
+        try {
+            if (!openSnapshots.remove(snapshot)) {
+                return;
+            }
+            long oldestVisible = oldestVisible(sequence);
+            if (oldestVisible <= snapshot.sequence) {
+                return;
+            }
+            for (ResourceId rid : withOlderVersions) {
+                prune(rid, newest.get(rid), oldestVisible);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long oldestVisible(long current) {
+        Snapshot oldest = openSnapshots.isEmpty() ? null : openSnapshots.first();
+        return oldest == null ? current : oldest.sequence;
+    }
+
+    /**
+     * Cuts off versions older than the newest one not newer than `oldestVisible`.
+     */
+    private void prune(ResourceId rid, Version head, long oldestVisible) {
+        Version version = head;
+        while (version.sequence > oldestVisible && version.older != null) {
+            version = version.older;
+        }
+        version.older = null;
+        if (head.older != null) {
+            withOlderVersions.add(rid);
+        } else {
+            withOlderVersions.remove(rid);
+        }
+    }
+
+    private final class Snapshot implements SnapshotReader, Comparable<Snapshot> {
+
+        private final long sequence;
+        private final long id;
+        private volatile boolean closed;
+
+        private Snapshot(long sequence, long id) {
+            this.sequence = sequence;
+            this.id = id;
+        }
+
+        @Override
+        public void read(ResourceId rid, ResourceOperation operation)
+                throws UnknownResourceIdException, ResourceOperationException {
+            if (!operation.isReadOnly()) {
+                throw new IllegalArgumentException("Snapshots can only be read");
+            }
+            if (closed) {
+                throw new IllegalStateException("Snapshot has been closed");
+            }
+            Version version = newest.get(rid);
+            while (version != null && version.sequence > sequence) {
+                version = version.older;
+            }
+            Resource resource = version == null ? null : restored(rid, version);
+            if (resource == null) {
+                throw new UnknownResourceIdException(rid);
+            }
+            resource.apply(operation);
+        }
+
+        /**
+         * Copies restored from a version are shared by all readers of it, which only
+         * perform read-only operations on them. Two readers racing for the first read
+         * may both restore one, which is harmless.
+         *
+         * @return `null` if the resource has been removed meanwhile.
+         */
+        private Resource restored(ResourceId rid, Version version) {
+            Resource resource = version.restored;
+            if (resource == null) {
+                Resource current = resources.get(rid);
+                if (current == null) {
+                    return null;
+                }
+                resource = current.newInstance();
+                try {
+                    Checkpoint.restore(resource, version.state);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Restoring a version of " + rid + " has failed", e);
+                }
+                version.restored = resource;
+            }
+            return resource;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            VersionStore.this.close(this);
+        }
+
+        @Override
+        public int compareTo(Snapshot other) {
+            int bySequence = Long.compare(sequence, other.sequence);
+            return bySequence != 0 ? bySequence : Long.compare(id, other.id);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package cp1.solution;
+
+/**
+ * A transaction waiting for a resource held by another one, both identified by their ids
+ * within one manager. Edges are exchanged with a coordinator looking for deadlocks which
+ * span several managers.
+ *
+ * @author Resul Hangeldiyev
+ */
+public final class WaitForEdge {
+
+    private final long waiterId;
+    private final long holderId;
+
+    public WaitForEdge(long waiterId, long holderId) {
+        this.waiterId = waiterId;
+        this.holderId = holderId;
+    }
+
+    public long getWaiterId() {
+        return waiterId;
+    }
+
+    public long getHolderId() {
+        return holderId;
+    }
+}
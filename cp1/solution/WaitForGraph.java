@@ -0,0 +1,160 @@
+package cp1.solution;
+
+import cp1.base.ResourceId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A snapshot of waiting transactions and the holders they wait for, searched for cycles
+ * by a periodic sweep instead of on every wait. Strongly connected components are found
+ * with Tarjan's algorithm in one pass over the graph; it is iterative, as a graph of
+ * thousands of waiting transactions would overflow the stack of a recursive one.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class WaitForGraph {
+
+    private final Map<Transaction, List<Transaction>> successors;
+    private final Map<Transaction, ResourceId> waitingFor;
+
+    WaitForGraph() {
+        this.successors = new HashMap<>();
+        this.waitingFor = new HashMap<>();
+    }
+
+    void addEdge(Transaction waiter, ResourceId rid, Transaction holder) {
+        successors.computeIfAbsent(waiter, key -> new ArrayList<>()).add(holder);
+        waitingFor.put(waiter, rid);
+    }
+
+    /**
+     * Removes the edges leaving `transaction`, which breaks every cycle through it.
+     */
+    void remove(Transaction transaction) {
+        successors.remove(transaction);
+    }
+
+    void exportEdges(List<WaitForEdge> into) {
+        for (Map.Entry<Transaction, List<Transaction>> entry : successors.entrySet()) {
+            for (Transaction holder : entry.getValue()) {
+                into.add(new WaitForEdge(entry.getKey().getId(), holder.getId()));
+            }
+        }
+    }
+
+    /**
+     * Edges of different resources are recorded at different moments, so a cycle of the
+     * snapshot may have been broken meanwhile. It is still there if none of `component`
+     * has been aborted and each still waits for the same resource: a waiting transaction
+     * keeps what it holds, so the holders it waited for are still in its way.
+     */
+    boolean isCurrent(List<Transaction> component) {
+        for (Transaction transaction : component) {
+            if (transaction.isAborted() || !waitingFor.get(transaction).equals(transaction.getWaitingFor())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return strongly connected components of more than one transaction, each of which
+     * contains a cycle.
+     */
+    List<List<Transaction>> cyclicComponents() {
+        List<List<Transaction>> components = new ArrayList<>();
+        Map<Transaction, Visit> visits = new HashMap<>();
+        Deque<Transaction> stack = new ArrayDeque<>();
+        Deque<Visit> calls = new ArrayDeque<>();
+        for (Transaction root : successors.keySet()) {
+            if (visits.containsKey(root)) {
+                continue;
+            }
+            calls.push(visit(root, visits, stack));
+            while (!calls.isEmpty()) {
+                Visit current = calls.peek();
+                List<Transaction> next = successors.getOrDefault(current.transaction, Collections.emptyList());
+                if (current.nextSuccessor < next.size()) {
+                    Transaction successor = next.get(current.nextSuccessor++);
+                    Visit visited = visits.get(successor);
+                    if (visited == null) {
+                        calls.push(visit(successor, visits, stack));
+                    } else if (visited.onStack) {
+                        current.lowLink = Math.min(current.lowLink, visited.index);
+                    }
+                    continue;
+                }
+                calls.pop();
+                if (!calls.isEmpty()) {
+                    calls.peek().lowLink = Math.min(calls.peek().lowLink, current.lowLink);
+                }
+                if (current.lowLink == current.index) {
+                    List<Transaction> component = new ArrayList<>();
+                    Transaction member;
+                    do {
+                        member = stack.pop();
+                        visits.get(member).onStack = false;
+                        component.add(member);
+                    } while (member != current.transaction);
+                    if (component.size() > 1) {
+                        components.add(component);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    private static Visit visit(Transaction transaction, Map<Transaction, Visit> visits, Deque<Transaction> stack) {
+        Visit visit = new Visit(transaction, visits.size());
+        visits.put(transaction, visit);
+        stack.push(transaction);
+        return visit;
+    }
+
+    /**
+     * @return a cycle within a strongly connected component, each transaction waiting for
+     * the next one and the last one for the first.
+     */
+    List<Transaction> cycleWithin(List<Transaction> component) {
+        Set<Transaction> members = new HashSet<>(component);
+        Map<Transaction, Integer> positions = new HashMap<>();
+        List<Transaction> path = new ArrayList<>();
+        Transaction current = component.get(0);
+        while (!positions.containsKey(current)) {
+            positions.put(current, path.size());
+            path.add(current);
+            for (Transaction successor : successors.get(current)) {
+                if (members.contains(successor)) {
+                    current = successor;
+                    break;
+                }
+            }
+        }
+        return path.subList(positions.get(current), path.size());
+    }
+
+    private static final class Visit {
+
+        private final Transaction transaction;
+        private final int index;
+        private int lowLink;
+        private int nextSuccessor;
+        private boolean onStack;
+
+        Visit(Transaction transaction, int index) {
+            this.transaction = transaction;
+            this.index = index;
+            this.lowLink = index;
+            this.onStack = true;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package cp1.solution;
+
+import cp1.base.TransactionPriority;
+
+import java.util.List;
+
+/**
+ * Transactions waiting for one resource, served by priority class and, within a class,
+ * in the order of arrival. The links are kept in the waiting transactions themselves, as
+ * a transaction waits for at most one resource at a time, so cancelling the wait of an
+ * aborted or timed out transaction takes constant time. The number of waiters of every
+ * class is bounded, so batch transactions piling onto a hot resource are turned away at
+ * once instead of growing the queue interactive ones are served from.
+ *
+ * Everything must be called holding the resource's stripe.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class WaitQueue {
+
+    private static final int CLASSES = TransactionPriority.values().length;
+    private static final TransactionPriority LOWEST = TransactionPriority.values()[CLASSES - 1];
+
+    private final Transaction[] heads;
+    private final Transaction[] tails;
+    private final int[] sizes;
+    private final int maxDepth;
+    private int size;
+
+    WaitQueue(int maxDepth) {
+        this.heads = new Transaction[CLASSES];
+        this.tails = new Transaction[CLASSES];
+        this.sizes = new int[CLASSES];
+        this.maxDepth = maxDepth;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Internal transactions of the manager are not subject to the bound.
+     */
+    boolean hasRoomFor(Transaction transaction) {
+        return transaction.isInternal() || sizes[transaction.getPriority().ordinal()] < maxDepth;
+    }
+
+    void addLast(Transaction transaction) {
+        int c = transaction.getPriority().ordinal();
+        transaction.linkWait(this, c, tails[c], null);
+        if (tails[c] == null) {
+            heads[c] = transaction;
+        } else {
+            tails[c].setWaitNext(transaction);
+        }
+        tails[c] = transaction;
+        sizes[c]++;
+        size++;
+    }
+
+    /**
+     * Puts `transaction` ahead of every waiter regardless of its priority, e.g. for an
+     * upgrade. Such a waiter is not subject to the bound.
+     */
+    void addFirst(Transaction transaction) {
+        transaction.linkWait(this, 0, null, heads[0]);
+        if (heads[0] == null) {
+            tails[0] = transaction;
+        } else {
+            heads[0].setWaitPrev(transaction);
+        }
+        heads[0] = transaction;
+        sizes[0]++;
+        size++;
+    }
+
+    Transaction peekFirst() {
+        for (int c = 0; c < CLASSES; c++) {
+            if (heads[c] != null) {
+                return heads[c];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return `false` if `transaction` is not waiting in this queue.
+     */
+    boolean remove(Transaction transaction) {
+        if (transaction.getWaitQueue() != this) {
+            return false;
+        }
+        int c = transaction.getWaitClass();
+        Transaction prev = transaction.getWaitPrev();
+        Transaction next = transaction.getWaitNext();
+        if (prev == null) {
+            heads[c] = next;
+        } else {
+            prev.setWaitNext(next);
+        }
+        if (next == null) {
+            tails[c] = prev;
+        } else {
+            next.setWaitPrev(prev);
+        }
+        transaction.linkWait(null, 0, null, null);
+        sizes[c]--;
+        size--;
+        return true;
+    }
+
+    void collectAll(List<Transaction> into) {
+        collectAhead(LOWEST, into);
+    }
+
+    /**
+     * Collects the waiters, which have not been aborted, that a newly queued transaction
+     * of the given priority would be served before.
+     */
+    void collectBehind(TransactionPriority priority, List<Transaction> into) {
+        for (int c = priority.ordinal() + 1; c < CLASSES; c++) {
+            for (Transaction waiting = heads[c]; waiting != null; waiting = waiting.getWaitNext()) {
+                if (!waiting.isAborted()) {
+                    into.add(waiting);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the waiters, which have not been aborted, that would be served before a
+     * newly queued transaction of the given priority.
+     */
+    void collectAhead(TransactionPriority priority, List<Transaction> into) {
+        for (int c = 0; c <= priority.ordinal(); c++) {
+            for (Transaction waiting = heads[c]; waiting != null; waiting = waiting.getWaitNext()) {
+                if (!waiting.isAborted()) {
+                    into.add(waiting);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package cp1.solution;
+
+import cp1.base.OperationCodec;
+import cp1.base.ResourceOperation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of committed transactions, kept in a directory as a sequence of
+ * segment files. Positions in the log (LSNs) are byte offsets counted from the start of
+ * the first segment ever written, and every segment is named after the LSN it starts at.
+ *
+ * A record is `[int length][int crc32][long transaction id][int count]` followed by
+ * `count` pairs of a resource id and an operation encoded by the codec. A torn or
+ * corrupted record ends the log; it is cut off when the log is opened.
+ *
+ * Commits are grouped: a committer appends its record to a shared buffer and, if no
+ * write is in progress, becomes the leader which writes and syncs everything buffered
+ * so far, its followers' records included. Others wait until a leader has synced past
+ * their records, so one sync serves all the transactions that committed while the
+ * previous one was in progress.
+ *
+ * @author Resul Hangeldiyev
+ */
+final class WriteAheadLog implements Closeable {
+
+    static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_BUFFER_SIZE = 64 << 10;
+
+    private final Path directory;
+    private final OperationCodec codec;
+    private final long segmentSize;
+    private final Lock lock;
+    private final Condition synced;
+
+    // Guarded by `lock`.
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long appendedLsn;
+    private long durableLsn;
+    private boolean writing;
+    private IOException failure;
+
+    // Used only by the current leader.
+    private FileChannel segment;
+
+    /**
+     * Opens the log in `directory`, continuing its newest segment. An empty directory
+     * starts a log at `startLsn`, so positions never go back below an existing
+     * checkpoint.
+     */
+    WriteAheadLog(Path directory, OperationCodec codec, long segmentSize, long startLsn) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.lock = new ReentrantLock();
+        this.synced = lock.newCondition();
+        this.pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            openSegment(startLsn);
+            appendedLsn = durableLsn = startLsn;
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            long validLength = read(last, null);
+            segment = FileChannel.open(last, StandardOpenOption.WRITE);
+            segment.truncate(validLength);
+            segment.position(validLength);
+            segment.force(true);
+            appendedLsn = durableLsn = segmentStart(last) + validLength;
+        }
+    }
+
+    /**
+     * Receives records of a segment, in order.
+     */
+    interface RecordVisitor {
+        void visit(long lsn, long transactionId, int count, DataInput entries) throws IOException;
+    }
+
+    /**
+     * Appends the modifications recorded in `undoLog` as a record of the transaction and
+     * returns once the record is on disk. Read-only operations are not logged, and a
+     * transaction which has not modified anything does not write a record at all.
+     *
+     * @throws UncheckedIOException if the log could not be written. Such a failure is
+     * permanent, as it is not known which records have reached the disk.
+     */
+    void commit(long transactionId, UndoLog undoLog) {
+        byte[] record;
+        try {
+            record = encode(transactionId, undoLog);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (record == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            checkFailure();
+            if (pending.remaining() < record.length) {
+                pending = grow(pending, record.length);
+            }
+            pending.put(record);
+            appendedLsn += record.length;
+            long lsn = appendedLsn;
+            while (durableLsn < lsn) {
+                checkFailure();
+                if (writing) {
+                    synced.awaitUninterruptibly();
+                } else {
+                    writeBatch();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and syncs everything appended so far as the leader. Called holding `lock`,
+     * which is released for the time of the I/O so that followers may keep appending.
+     */
+    private void writeBatch() {
+        writing = true;
+        ByteBuffer batch = pending;
+        long batchEnd = appendedLsn;
+        pending = spare;
+        spare = null;
+        lock.unlock();
+        IOException error = null;
+        try {
+            batch.flip();
+            if (segment.position() > 0 && segment.position() + batch.remaining() > segmentSize) {
+                segment.close();
+                openSegment(batchEnd - batch.remaining());
+            }
+            while (batch.hasRemaining()) {
+                segment.write(batch);
+            }
+            segment.force(false);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+        batch.clear();
+        spare = batch;
+        writing = false;
+        if (error == null) {
+            durableLsn = batchEnd;
+        } else {
+            failure = error;
+        }
+        synced.signalAll();
+    }
+
+    OperationCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return LSN right past the last record appended so far.
+     */
+    long position() {
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes segments holding only records below `lsn`. The newest segment, which may be
+     * open for writing, is never deleted.
+     */
+    void truncate(long lsn) throws IOException {
+        List<Path> segments = segments(directory);
+        for (int i = 0; i + 1 < segments.size() && segmentStart(segments.get(i + 1)) <= lsn; i++) {
+            Files.delete(segments.get(i));
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log has failed", failure);
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < needed) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private byte[] encode(long transactionId, UndoLog undoLog) throws IOException {
+        int count = 0;
+        for (int i = 0; i < undoLog.size(); i++) {
+            if (!undoLog.operationAt(i).isReadOnly()) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + 12 + 16 * count);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0);
+        out.writeLong(transactionId);
+        out.writeInt(count);
+        for (int i = 0; i < undoLog.size(); i++) {
+            ResourceOperation operation = undoLog.operationAt(i);
+            if (!operation.isReadOnly()) {
+                codec.writeResourceId(undoLog.resourceAt(i), out);
+                codec.writeOperation(operation, out);
+            }
+        }
+        out.flush();
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE);
+        record.putInt(0, record.capacity() - HEADER_SIZE);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private void openSegment(long startLsn) throws IOException {
+        segment = FileChannel.open(directory.resolve(segmentName(startLsn)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        // Makes the new file itself durable.
+        segment.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            while (writing) {
+                synced.awaitUninterruptibly();
+            }
+            failure = new IOException("Write-ahead log has been closed");
+            segment.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Segments of the log in `directory`, in the order of their LSNs.
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static long segmentStart(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static String segmentName(long startLsn) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, startLsn, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Passes the valid records of a segment to `visitor`, which may be `null`.
+     *
+     * @return length of the valid prefix of the segment.
+     */
+    static long read(Path segment, RecordVisitor visitor) throws IOException {
+        long start = segmentStart(segment);
+        long valid = 0;
+        long size = Files.size(segment);
+        CRC32 crc = new CRC32();
+        try (InputStream stream = Files.newInputStream(segment)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 12 || length > size - valid - HEADER_SIZE) {
+                        return valid;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    return valid;
+                }
+                if (visitor != null) {
+                    DataInputStream entries = new DataInputStream(
+                            new ByteArrayInputStream(payload, 12, length - 12));
+                    ByteBuffer header = ByteBuffer.wrap(payload, 0, 12);
+                    visitor.visit(start + valid, header.getLong(), header.getInt(), entries);
+                }
+                valid += HEADER_SIZE + length;
+            }
+        }
+    }
+
+}
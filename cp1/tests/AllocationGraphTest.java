@@ -4,6 +4,7 @@ import cp1.base.ActiveTransactionAborted;
 import cp1.base.AnotherTransactionActiveException;
 import cp1.base.NoActiveTransactionException;
 import cp1.base.Resource;
+import cp1.base.ResourceId;
 import cp1.base.ResourceOperationException;
 import cp1.base.TransactionManager;
 import cp1.base.UnknownResourceIdException;
@@ -186,6 +187,110 @@ public class AllocationGraphTest {
         expectResourceValue(r3, 1);
     }
 
+    @Test
+    public void testAcquireAllAvoidsDeadlock() {
+        List<List<ResourceImpl>> orders = Arrays.asList(
+                Arrays.asList(r1, r2, r3),
+                Arrays.asList(r3, r2, r1),
+                Arrays.asList(r2, r3, r1)
+        );
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (List<ResourceImpl> order : orders) {
+            threads.add(
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            List<ResourceId> rids = new ArrayList<>();
+                            for (ResourceImpl r : order) {
+                                rids.add(r.getId());
+                            }
+                            try {
+                                tm.startTransaction();
+                                tm.acquireAllInCurrentTransaction(rids);
+                                for (ResourceImpl r : order) {
+                                    tm.operateOnResourceInCurrentTransaction(
+                                            r.getId(),
+                                            ResourceOpImpl.get()
+                                    );
+                                    Thread.sleep(BASE_WAIT_TIME / 5);
+                                }
+                                tm.commitCurrentTransaction();
+                            } catch (InterruptedException |
+                                    AnotherTransactionActiveException |
+                                    ActiveTransactionAborted |
+                                    NoActiveTransactionException |
+                                    UnknownResourceIdException |
+                                    ResourceOperationException e) {
+                                throw new AssertionError(e);
+                            } finally {
+                                tm.rollbackCurrentTransaction();
+                            }
+                        }
+                    })
+            );
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join(10 * BASE_WAIT_TIME);
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+        expectResourceValue(r1, 3);
+        expectResourceValue(r2, 3);
+        expectResourceValue(r3, 3);
+    }
+
+    @Test
+    public void testAcquireAllGrantsOnlyUpToHeldResource() throws Exception {
+        List<ResourceImpl> many = new ArrayList<>();
+        List<ResourceId> rids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ResourceImpl r = new ResourceImpl(ResourceIdImpl.generate());
+            many.add(r);
+            rids.add(r.getId());
+        }
+        TransactionManager batchTm = TransactionManagerFactory.newTM(
+                Collections.unmodifiableList(new ArrayList<Resource>(many)),
+                new LocalTimeProviderImpl());
+        ResourceImpl blocked = many.get(100);
+        batchTm.startTransaction();
+        batchTm.operateOnResourceInCurrentTransaction(blocked.getId(), ResourceOpImpl.get());
+        Thread acquiring = new Thread(() -> {
+            try {
+                batchTm.startTransaction();
+                batchTm.acquireAllInCurrentTransaction(rids);
+                for (ResourceId rid : rids) {
+                    batchTm.operateOnResourceInCurrentTransaction(rid, ResourceOpImpl.get());
+                }
+                batchTm.commitCurrentTransaction();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                batchTm.rollbackCurrentTransaction();
+            }
+        });
+        acquiring.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        if (batchTm.tryOperateOnResourceInCurrentTransaction(many.get(99).getId(), ResourceOpImpl.get())) {
+            throw new AssertionError("Resource ahead of the held one not acquired");
+        }
+        if (!batchTm.tryOperateOnResourceInCurrentTransaction(many.get(101).getId(), ResourceOpImpl.get())) {
+            throw new AssertionError("Resource behind the held one acquired before it");
+        }
+        batchTm.commitCurrentTransaction();
+        acquiring.join(10 * BASE_WAIT_TIME);
+        if (acquiring.isAlive()) {
+            throw new AssertionError("Batch acquisition never completed");
+        }
+        expectResourceValue(many.get(0), 1);
+        expectResourceValue(blocked, 2);
+        expectResourceValue(many.get(101), 2);
+    }
+
     private final static void expectResourceValue(ResourceImpl r, long val) {
         if (r.getValue() != val) {
             throw new AssertionError(
@@ -0,0 +1,95 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AsyncTransactionManager;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.Resource;
+import cp1.base.TransactionHandle;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class AsyncTransactionManagerTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1, r2)
+            );
+    AsyncTransactionManager tm =
+            TransactionManagerFactory.newAsyncTM(
+                    resources,
+                    new LocalTimeProviderImpl(),
+                    ForkJoinPool.commonPool()
+            );
+
+    @Test
+    public void testOperationCompletesAfterRelease() throws Exception {
+        TransactionHandle first = tm.beginTransaction();
+        TransactionHandle second = tm.beginTransaction();
+        tm.operateOnResourceAsync(first, r1.getId(), ResourceOpImpl.get()).get();
+        CompletableFuture<Void> waiting = tm.operateOnResourceAsync(second, r1.getId(), ResourceOpImpl.get());
+        try {
+            waiting.get(BASE_WAIT_TIME, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Operated on a resource owned by another transaction");
+        } catch (TimeoutException e) {
+        }
+        tm.commitTransaction(first);
+        waiting.get(10 * BASE_WAIT_TIME, TimeUnit.MILLISECONDS);
+        tm.commitTransaction(second);
+        expectResourceValue(r1, 2);
+    }
+
+    @Test
+    public void testDeadlockVictimCompletesExceptionally() throws Exception {
+        TransactionHandle older = tm.beginTransaction();
+        Thread.sleep(10);
+        TransactionHandle younger = tm.beginTransaction();
+        tm.operateOnResourceAsync(older, r1.getId(), ResourceOpImpl.get()).get();
+        tm.operateOnResourceAsync(younger, r2.getId(), ResourceOpImpl.get()).get();
+        CompletableFuture<Void> olderWaiting = tm.operateOnResourceAsync(older, r2.getId(), ResourceOpImpl.get());
+        CompletableFuture<Void> youngerWaiting = tm.operateOnResourceAsync(younger, r1.getId(), ResourceOpImpl.get());
+        try {
+            youngerWaiting.get(10 * BASE_WAIT_TIME, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Deadlock victim has not been aborted");
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof ActiveTransactionAborted)) {
+                throw new AssertionError(e);
+            }
+        }
+        if (!tm.isTransactionAborted(younger)) {
+            throw new AssertionError("Deadlock victim is not marked as aborted");
+        }
+        tm.rollbackTransaction(younger);
+        olderWaiting.get(10 * BASE_WAIT_TIME, TimeUnit.MILLISECONDS);
+        try {
+            tm.commitTransaction(older);
+        } catch (NoActiveTransactionException | ActiveTransactionAborted e) {
+            throw new AssertionError(e);
+        }
+        expectResourceValue(r1, 1);
+        expectResourceValue(r2, 1);
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+}
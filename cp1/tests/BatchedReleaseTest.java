@@ -0,0 +1,85 @@
+package cp1.tests;
+
+import cp1.base.Resource;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BatchedReleaseTest {
+
+    private final static int RESOURCES = 200;
+    private final static int WAITERS = 50;
+    private final static long MAX_WAIT_TIME = 5000;
+
+    List<ResourceImpl> resourceImpls = new ArrayList<>();
+    List<Resource> resources = new ArrayList<>();
+
+    {
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl resource = new ResourceImpl(ResourceIdImpl.generate());
+            resourceImpls.add(resource);
+            resources.add(resource);
+        }
+    }
+
+    TransactionManager tm = TransactionManagerFactory.newShardedTM(resources, new LocalTimeProviderImpl(), 4);
+
+    @Test
+    public void testCommitHandsEveryResourceToItsWaiters() throws Exception {
+        TransactionHandle large = tm.beginTransaction();
+        for (ResourceImpl resource : resourceImpls) {
+            tm.operateOnResource(large, resource.getId(), ResourceOpImpl.get());
+        }
+        List<Thread> waiters = new ArrayList<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        for (int i = 0; i < WAITERS; i++) {
+            // Only some of the resources have a waiter.
+            ResourceImpl resource = resourceImpls.get((7 * i) % (RESOURCES / 2));
+            TransactionHandle waiter = tm.beginTransaction();
+            Thread thread = new Thread(() -> {
+                try {
+                    tm.operateOnResource(waiter, resource.getId(), ResourceOpImpl.get());
+                    tm.commitTransaction(waiter);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            waiters.add(thread);
+        }
+        awaitWaits(WAITERS);
+        tm.commitTransaction(large);
+        for (Thread thread : waiters) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Waiter failed", failure.get());
+        }
+        long total = 0;
+        for (ResourceImpl resource : resourceImpls) {
+            total += resource.getValue();
+        }
+        if (total != RESOURCES + WAITERS) {
+            throw new AssertionError("Unexpected total " + total);
+        }
+    }
+
+    /**
+     * Waits until `waits` transactions have been queued, as each one is counted only
+     * once it is.
+     */
+    private void awaitWaits(long waits) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MAX_WAIT_TIME;
+        while (tm.getStats().getWaits() < waits) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Only " + tm.getStats().getWaits() + " waiters queued");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
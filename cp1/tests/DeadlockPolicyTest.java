@@ -0,0 +1,212 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.LocalTimeProvider;
+import cp1.base.Resource;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.base.TransactionPriority;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.StandardDeadlockPolicy;
+import cp1.solution.Transaction;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DeadlockPolicyTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1, r2)
+            );
+
+    // Every transaction starts strictly later than the previous one.
+    AtomicLong clock = new AtomicLong();
+    LocalTimeProvider timeProvider = clock::incrementAndGet;
+
+    @Test
+    public void testNoWaitAbortsRequester() throws Exception {
+        TransactionManager tm = newTM(StandardDeadlockPolicy.NO_WAIT);
+        TransactionHandle older = tm.beginTransaction();
+        TransactionHandle younger = tm.beginTransaction();
+        tm.operateOnResource(younger, r1.getId(), ResourceOpImpl.get());
+        expectAborted(tm, older);
+        tm.commitTransaction(younger);
+        tm.rollbackTransaction(older);
+        expectValue(r1, 1);
+    }
+
+    @Test
+    public void testWaitDie() throws Exception {
+        TransactionManager tm = newTM(StandardDeadlockPolicy.WAIT_DIE);
+        TransactionHandle older = tm.beginTransaction();
+        TransactionHandle younger = tm.beginTransaction();
+        tm.operateOnResource(older, r1.getId(), ResourceOpImpl.get());
+        expectAborted(tm, younger);
+        tm.rollbackTransaction(younger);
+        tm.commitTransaction(older);
+
+        TransactionHandle oldest = tm.beginTransaction();
+        TransactionHandle youngest = tm.beginTransaction();
+        tm.operateOnResource(youngest, r1.getId(), ResourceOpImpl.get());
+        Thread waiting = operateInThread(tm, oldest);
+        Thread.sleep(BASE_WAIT_TIME);
+        if (!waiting.isAlive()) {
+            throw new AssertionError("Older transaction did not wait for a younger one");
+        }
+        tm.commitTransaction(youngest);
+        waiting.join();
+        tm.commitTransaction(oldest);
+        expectValue(r1, 3);
+    }
+
+    @Test
+    public void testWoundWait() throws Exception {
+        TransactionManager tm = newTM(StandardDeadlockPolicy.WOUND_WAIT);
+        TransactionHandle older = tm.beginTransaction();
+        TransactionHandle younger = tm.beginTransaction();
+        tm.operateOnResource(younger, r1.getId(), ResourceOpImpl.get());
+        Thread waiting = operateInThread(tm, older);
+        Thread.sleep(BASE_WAIT_TIME);
+        if (!tm.isTransactionAborted(younger)) {
+            throw new AssertionError("Younger transaction not wounded");
+        }
+        if (!waiting.isAlive()) {
+            throw new AssertionError("Older transaction did not wait for the rollback");
+        }
+        tm.rollbackTransaction(younger);
+        waiting.join();
+        tm.commitTransaction(older);
+        expectValue(r1, 1);
+    }
+
+    @Test
+    public void testWoundWaitSparesPreparedBlocker() throws Exception {
+        TransactionManager tm = newTM(StandardDeadlockPolicy.WOUND_WAIT);
+        TransactionHandle older = tm.beginTransaction();
+        TransactionHandle younger = tm.beginTransaction();
+        tm.operateOnResource(younger, r1.getId(), ResourceOpImpl.get());
+        tm.prepareTransaction(younger);
+        Thread waiting = operateInThread(tm, older);
+        Thread.sleep(BASE_WAIT_TIME);
+        if (tm.isTransactionAborted(younger)) {
+            throw new AssertionError("Prepared transaction wounded");
+        }
+        if (!waiting.isAlive()) {
+            throw new AssertionError("Older transaction did not wait for a prepared one");
+        }
+        if (tm.getStats().getDeadlocks() != 0) {
+            throw new AssertionError("Wound of a prepared transaction counted: " + tm.getStats());
+        }
+        tm.commitTransaction(younger);
+        waiting.join();
+        tm.commitTransaction(older);
+        expectValue(r1, 2);
+    }
+
+    @Test
+    public void testWaitDieJudgesWaitersPassedByHigherClass() throws Exception {
+        TransactionManager tm = newTM(StandardDeadlockPolicy.WAIT_DIE);
+        TransactionHandle interactive = tm.beginTransaction(TransactionPriority.INTERACTIVE);
+        TransactionHandle batch = tm.beginTransaction(TransactionPriority.BATCH);
+        TransactionHandle holder = tm.beginTransaction();
+        tm.operateOnResource(holder, r1.getId(), ResourceOpImpl.get());
+        tm.operateOnResource(batch, r2.getId(), ResourceOpImpl.get());
+        AtomicBoolean batchAborted = new AtomicBoolean();
+        Thread batchThread = new Thread(() -> {
+            try {
+                tm.operateOnResource(batch, r1.getId(), ResourceOpImpl.get());
+                tm.commitTransaction(batch);
+            } catch (ActiveTransactionAborted e) {
+                batchAborted.set(true);
+                tm.rollbackTransaction(batch);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        batchThread.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        // Queued ahead of the batch transaction, which would now wait for a younger one.
+        Thread interactiveThread = new Thread(() -> {
+            try {
+                tm.operateOnResource(interactive, r1.getId(), ResourceOpImpl.get());
+                tm.operateOnResource(interactive, r2.getId(), ResourceOpImpl.get());
+                tm.commitTransaction(interactive);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        interactiveThread.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        tm.commitTransaction(holder);
+        batchThread.join(10 * BASE_WAIT_TIME);
+        interactiveThread.join(10 * BASE_WAIT_TIME);
+        if (batchThread.isAlive() || interactiveThread.isAlive()) {
+            throw new AssertionError("Transactions deadlocked under a prevention policy");
+        }
+        if (!batchAborted.get()) {
+            throw new AssertionError("Younger waiter passed by an older one not aborted");
+        }
+        expectValue(r1, 2);
+        expectValue(r2, 1);
+    }
+
+    @Test
+    public void testVictimSelection() {
+        Transaction older = new Transaction(1, 1);
+        Transaction younger = new Transaction(2, 2);
+        younger.finishedOperationOnTheResource(r1.getId(), ResourceOpImpl.get());
+        List<Transaction> cycle = Arrays.asList(older, younger);
+        if (StandardDeadlockPolicy.DETECT_ABORT_YOUNGEST.chooseVictim(cycle) != 1) {
+            throw new AssertionError("Youngest transaction not chosen");
+        }
+        if (StandardDeadlockPolicy.DETECT_ABORT_FEWEST_UNDO.chooseVictim(cycle) != 0) {
+            throw new AssertionError("Transaction with the fewest undo entries not chosen");
+        }
+    }
+
+    private TransactionManager newTM(DeadlockPolicy policy) {
+        return TransactionManagerFactory.newTM(resources, timeProvider, policy);
+    }
+
+    private void expectAborted(TransactionManager tm, TransactionHandle handle) throws Exception {
+        try {
+            tm.operateOnResource(handle, r1.getId(), ResourceOpImpl.get());
+            throw new AssertionError("Transaction not aborted");
+        } catch (ActiveTransactionAborted e) {
+            // The manager interrupts the thread of an aborted transaction.
+            Thread.interrupted();
+        }
+        if (!tm.isTransactionAborted(handle)) {
+            throw new AssertionError("Transaction not marked as aborted");
+        }
+    }
+
+    private Thread operateInThread(TransactionManager tm, TransactionHandle handle) {
+        Thread thread = new Thread(() -> {
+            try {
+                tm.operateOnResource(handle, r1.getId(), ResourceOpImpl.get());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.base.TransactionManagerStats;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.StandardDeadlockPolicy;
+import cp1.solution.TransactionInfo;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeadlockSweepTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+    private final static long SWEEP_INTERVAL = 100;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r3 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r4 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1, r2, r3, r4)
+            );
+    TransactionManager tm =
+            TransactionManagerFactory.newTM(
+                    resources,
+                    new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .deadlockDetectionInterval(SWEEP_INTERVAL, TimeUnit.MILLISECONDS)
+                            .build()
+            );
+
+    @Test
+    public void testSweepBreaksDeadlock() throws Exception {
+        AtomicInteger aborted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(crossing(r1, r2, aborted));
+        threads.add(crossing(r2, r1, aborted));
+        join(threads);
+        if (aborted.get() != 1) {
+            throw new AssertionError("Unexpected number of victims: " + aborted.get());
+        }
+        expectValue(r1, 1);
+        expectValue(r2, 1);
+        TransactionManagerStats stats = tm.getStats();
+        if (stats.getDeadlocks() != 1 || stats.getDeadlockSweeps() == 0) {
+            throw new AssertionError("Unexpected stats " + stats);
+        }
+        if (stats.getDeadlockDetectionIntervalNanos() != TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL)) {
+            throw new AssertionError("Unexpected sweep interval " + stats.getDeadlockDetectionIntervalNanos());
+        }
+        tm.shutdown();
+    }
+
+    @Test
+    public void testSweepBreaksDisjointDeadlocks() throws Exception {
+        AtomicInteger aborted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(crossing(r1, r2, aborted));
+        threads.add(crossing(r2, r1, aborted));
+        threads.add(crossing(r3, r4, aborted));
+        threads.add(crossing(r4, r3, aborted));
+        join(threads);
+        if (aborted.get() != 2) {
+            throw new AssertionError("Unexpected number of victims: " + aborted.get());
+        }
+        tm.shutdown();
+    }
+
+    @Test
+    public void testSweepsSurviveFailingPolicy() throws Exception {
+        AtomicInteger failures = new AtomicInteger(2);
+        DeadlockPolicy flaky = new DeadlockPolicy() {
+            @Override
+            public boolean detectsDeadlocks() {
+                return true;
+            }
+
+            @Override
+            public Resolution onConflict(TransactionInfo requester, TransactionInfo blocker) {
+                return Resolution.WAIT;
+            }
+
+            @Override
+            public int chooseVictim(List<? extends TransactionInfo> cycle) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("Policy failed");
+                }
+                return StandardDeadlockPolicy.DETECT_ABORT_YOUNGEST.chooseVictim(cycle);
+            }
+        };
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                resources,
+                new LocalTimeProviderImpl(),
+                new TransactionManagerConfig.Builder()
+                        .deadlockPolicy(flaky)
+                        .deadlockDetectionInterval(SWEEP_INTERVAL, TimeUnit.MILLISECONDS)
+                        .build());
+        AtomicInteger aborted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(crossing(tm, r1, r2, aborted));
+        threads.add(crossing(tm, r2, r1, aborted));
+        join(threads);
+        if (aborted.get() != 1) {
+            throw new AssertionError("Unexpected number of victims: " + aborted.get());
+        }
+        if (tm.getStats().getFailedDeadlockSweeps() != 2) {
+            throw new AssertionError("Unexpected stats " + tm.getStats());
+        }
+        tm.shutdown();
+    }
+
+    @Test
+    public void testWaitsDoNotDetectThemselves() throws Exception {
+        TransactionManager slow = TransactionManagerFactory.newTM(
+                resources,
+                new LocalTimeProviderImpl(),
+                new TransactionManagerConfig.Builder()
+                        .deadlockDetectionInterval(1, TimeUnit.HOURS)
+                        .build());
+        AtomicInteger aborted = new AtomicInteger();
+        Thread first = crossing(slow, r1, r2, aborted);
+        Thread second = crossing(slow, r2, r1, aborted);
+        Thread.sleep(4 * BASE_WAIT_TIME);
+        if (!first.isAlive() || !second.isAlive() || aborted.get() != 0) {
+            throw new AssertionError("Deadlock broken before a sweep");
+        }
+        first.interrupt();
+        second.interrupt();
+        first.join();
+        second.join();
+        slow.shutdown();
+    }
+
+    private Thread crossing(ResourceImpl first, ResourceImpl second, AtomicInteger aborted) {
+        return crossing(tm, first, second, aborted);
+    }
+
+    private Thread crossing(TransactionManager tm, ResourceImpl first, ResourceImpl second,
+                            AtomicInteger aborted) {
+        Thread thread = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(first.getId(), ResourceOpImpl.get());
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.operateOnResourceInCurrentTransaction(second.getId(), ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            } catch (ActiveTransactionAborted e) {
+                aborted.incrementAndGet();
+            } catch (InterruptedException e) {
+                // Test is over.
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(10 * BASE_WAIT_TIME);
+            if (thread.isAlive()) {
+                throw new AssertionError("Deadlock not resolved");
+            }
+        }
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.base.UnknownResourceIdException;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DynamicResourcesTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1)
+            );
+
+    @Test
+    public void testRegisterAndUnregister() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+        if (!tm.registerResource(r2) || tm.registerResource(r2)) {
+            throw new AssertionError("Unexpected result of registration");
+        }
+        TransactionHandle transaction = tm.beginTransaction();
+        tm.operateOnResource(transaction, r2.getId(), ResourceOpImpl.get());
+        tm.commitTransaction(transaction);
+        expectValue(r2, 1);
+        if (!tm.unregisterResource(r2.getId()) || tm.unregisterResource(r2.getId())) {
+            throw new AssertionError("Unexpected result of unregistration");
+        }
+        expectUnknown(tm, tm.beginTransaction());
+    }
+
+    @Test
+    public void testUnregisterWaitsForHolder() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+        TransactionHandle holder = tm.beginTransaction();
+        tm.operateOnResource(holder, r1.getId(), ResourceOpImpl.get());
+        Thread unregistering = new Thread(() -> {
+            try {
+                tm.unregisterResource(r1.getId());
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        });
+        unregistering.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        TransactionHandle waiter = tm.beginTransaction();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                tm.operateOnResource(waiter, r1.getId(), ResourceOpImpl.get());
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        waiting.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        if (!unregistering.isAlive()) {
+            throw new AssertionError("Resource removed while held");
+        }
+        tm.commitTransaction(holder);
+        unregistering.join();
+        waiting.join();
+        if (!(failure.get() instanceof UnknownResourceIdException)) {
+            throw new AssertionError("Waiter operated on a removed resource: " + failure.get());
+        }
+        tm.rollbackTransaction(waiter);
+        expectValue(r1, 1);
+    }
+
+    @Test
+    public void testUnregisterDropsWaitCounter() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+        TransactionHandle holder = tm.beginTransaction();
+        tm.operateOnResource(holder, r1.getId(), ResourceOpImpl.get());
+        TransactionHandle waiter = tm.beginTransaction();
+        Thread waiting = new Thread(() -> {
+            try {
+                tm.operateOnResource(waiter, r1.getId(), ResourceOpImpl.get());
+                tm.commitTransaction(waiter);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        waiting.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        tm.commitTransaction(holder);
+        waiting.join();
+        if (!tm.getStats().getHottestResources().containsKey(r1.getId())) {
+            throw new AssertionError("Wait for " + r1.getId() + " not counted");
+        }
+        tm.unregisterResource(r1.getId());
+        if (tm.getStats().getHottestResources().containsKey(r1.getId())) {
+            throw new AssertionError("Waits for a removed resource still counted");
+        }
+    }
+
+    @Test
+    public void testOptimisticWriterOfRemovedResourceAborts() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newOptimisticTM(resources, new LocalTimeProviderImpl());
+        TransactionHandle writer = tm.beginTransaction();
+        tm.operateOnResource(writer, r1.getId(), ResourceOpImpl.get());
+        tm.unregisterResource(r1.getId());
+        try {
+            tm.commitTransaction(writer);
+            throw new AssertionError("Commit of a removed resource succeeded");
+        } catch (ActiveTransactionAborted e) {
+        }
+        tm.rollbackTransaction(writer);
+        tm.registerResource(r1);
+        TransactionHandle transaction = tm.beginTransaction();
+        tm.operateOnResource(transaction, r1.getId(), ResourceOpImpl.get());
+        tm.commitTransaction(transaction);
+        expectValue(r1, 1);
+    }
+
+    private void expectUnknown(TransactionManager tm, TransactionHandle handle) throws Exception {
+        try {
+            tm.operateOnResource(handle, r2.getId(), ResourceOpImpl.get());
+            throw new AssertionError("Operated on a removed resource");
+        } catch (UnknownResourceIdException e) {
+        }
+        tm.rollbackTransaction(handle);
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HierarchicalLockingTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    interface Body {
+        void run() throws Exception;
+    }
+
+    ResourceId group = ResourceIdImpl.generate();
+    ResourceImpl m1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl m2 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl other = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(other)
+            );
+    TransactionManager tm =
+            TransactionManagerFactory.newTM(
+                    resources,
+                    new LocalTimeProviderImpl()
+            );
+
+    {
+        tm.registerResource(m1, group);
+        tm.registerResource(m2, group);
+    }
+
+    @Test
+    public void testExclusiveGroupCoversMembers() throws Exception {
+        tm.startTransaction();
+        tm.acquireGroupInCurrentTransaction(group, true);
+        tm.operateOnResourceInCurrentTransaction(m1.getId(), ResourceOpImpl.get());
+        tm.operateOnResourceInCurrentTransaction(m2.getId(), ResourceOpImpl.get());
+        Thread member = inTransaction(() -> tm.operateOnResourceInCurrentTransaction(m1.getId(), ResourceOpImpl.get()));
+        Thread outside = inTransaction(() -> tm.operateOnResourceInCurrentTransaction(other.getId(), ResourceOpImpl.get()));
+        outside.join(2 * BASE_WAIT_TIME);
+        if (outside.isAlive()) {
+            throw new AssertionError("Resource outside the group waited");
+        }
+        if (!member.isAlive()) {
+            throw new AssertionError("Member taken while its group is held exclusively");
+        }
+        tm.commitCurrentTransaction();
+        member.join();
+        expectValue(m1, 2);
+        expectValue(m2, 1);
+        expectValue(other, 1);
+    }
+
+    @Test
+    public void testSharedGroupWaitsForMemberWriters() throws Exception {
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(m1.getId(), ReadOnlyOpImpl.get());
+        Thread sharedReader = inTransaction(() -> tm.acquireGroupInCurrentTransaction(group, false));
+        sharedReader.join(2 * BASE_WAIT_TIME);
+        if (sharedReader.isAlive()) {
+            throw new AssertionError("Readers of a group and of its member excluded each other");
+        }
+        tm.operateOnResourceInCurrentTransaction(m2.getId(), ResourceOpImpl.get());
+        Thread sharedWaiter = inTransaction(() -> tm.acquireGroupInCurrentTransaction(group, false));
+        Thread.sleep(BASE_WAIT_TIME);
+        if (!sharedWaiter.isAlive()) {
+            throw new AssertionError("Group shared with a writer of its member");
+        }
+        tm.commitCurrentTransaction();
+        sharedWaiter.join();
+        expectValue(m2, 1);
+    }
+
+    @Test
+    public void testDeadlockThroughGroupIsDetected() throws Exception {
+        AtomicInteger aborted = new AtomicInteger();
+        Thread first = inTransaction(() -> {
+            tm.acquireGroupInCurrentTransaction(group, true);
+            Thread.sleep(BASE_WAIT_TIME);
+            operateOrCountAbort(other, aborted);
+        });
+        Thread second = inTransaction(() -> {
+            tm.operateOnResourceInCurrentTransaction(other.getId(), ResourceOpImpl.get());
+            Thread.sleep(BASE_WAIT_TIME);
+            operateOrCountAbort(m1, aborted);
+        });
+        first.join(10 * BASE_WAIT_TIME);
+        second.join(10 * BASE_WAIT_TIME);
+        if (first.isAlive() || second.isAlive() || aborted.get() != 1) {
+            throw new AssertionError("Deadlock through a group not resolved");
+        }
+    }
+
+    private void operateOrCountAbort(ResourceImpl resource, AtomicInteger aborted) throws Exception {
+        try {
+            tm.operateOnResourceInCurrentTransaction(resource.getId(), ResourceOpImpl.get());
+        } catch (ActiveTransactionAborted e) {
+            aborted.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private Thread inTransaction(Body body) {
+        Thread thread = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                body.run();
+                tm.commitCurrentTransaction();
+            } catch (ActiveTransactionAborted e) {
+                // Expected of deadlock victims.
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package cp1.tests;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class LockEscalationTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceId group = ResourceIdImpl.generate();
+    ResourceImpl m1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl m2 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl m3 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl m4 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources = Collections.emptyList();
+    TransactionManager tm =
+            TransactionManagerFactory.newTM(
+                    resources,
+                    new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .lockEscalationThreshold(2)
+                            .build()
+            );
+
+    {
+        tm.registerResource(m1, group);
+        tm.registerResource(m2, group);
+        tm.registerResource(m3, group);
+        tm.registerResource(m4, group);
+    }
+
+    @Test
+    public void testWritesEscalateToExclusiveGroup() throws Exception {
+        TransactionHandle scanner = tm.beginTransaction();
+        tm.operateOnResource(scanner, m1.getId(), ResourceOpImpl.get());
+        tm.operateOnResource(scanner, m2.getId(), ResourceOpImpl.get());
+        tm.operateOnResource(scanner, m3.getId(), ResourceOpImpl.get());
+        TransactionHandle reader = tm.beginTransaction();
+        Thread readerThread = operateInThread(reader, m4, ReadOnlyOpImpl.get());
+        Thread.sleep(BASE_WAIT_TIME);
+        if (!readerThread.isAlive()) {
+            throw new AssertionError("Group not escalated to exclusive mode");
+        }
+        tm.commitTransaction(scanner);
+        readerThread.join();
+        tm.commitTransaction(reader);
+        expectValue(m1, 1);
+        expectValue(m3, 1);
+        expectValue(m4, 0);
+    }
+
+    @Test
+    public void testReadsEscalateToSharedGroup() throws Exception {
+        TransactionHandle scanner = tm.beginTransaction();
+        tm.operateOnResource(scanner, m1.getId(), ReadOnlyOpImpl.get());
+        tm.operateOnResource(scanner, m2.getId(), ReadOnlyOpImpl.get());
+        tm.operateOnResource(scanner, m3.getId(), ReadOnlyOpImpl.get());
+        TransactionHandle reader = tm.beginTransaction();
+        tm.operateOnResource(reader, m4.getId(), ReadOnlyOpImpl.get());
+        tm.commitTransaction(reader);
+        TransactionHandle writer = tm.beginTransaction();
+        Thread writerThread = operateInThread(writer, m4, ResourceOpImpl.get());
+        Thread.sleep(BASE_WAIT_TIME);
+        if (!writerThread.isAlive()) {
+            throw new AssertionError("Group not escalated to shared mode");
+        }
+        tm.commitTransaction(scanner);
+        writerThread.join();
+        tm.commitTransaction(writer);
+        expectValue(m4, 1);
+    }
+
+    @Test
+    public void testConflictingHolderPreventsEscalation() throws Exception {
+        TransactionHandle holder = tm.beginTransaction();
+        tm.operateOnResource(holder, m4.getId(), ResourceOpImpl.get());
+        TransactionHandle scanner = tm.beginTransaction();
+        Thread scannerThread = new Thread(() -> {
+            try {
+                tm.operateOnResource(scanner, m1.getId(), ResourceOpImpl.get());
+                tm.operateOnResource(scanner, m2.getId(), ResourceOpImpl.get());
+                tm.operateOnResource(scanner, m3.getId(), ResourceOpImpl.get());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        scannerThread.start();
+        scannerThread.join(2 * BASE_WAIT_TIME);
+        if (scannerThread.isAlive()) {
+            throw new AssertionError("Escalation waited for a holder of another member");
+        }
+        tm.commitTransaction(holder);
+        tm.commitTransaction(scanner);
+        expectValue(m3, 1);
+        expectValue(m4, 1);
+    }
+
+    private Thread operateInThread(TransactionHandle handle, ResourceImpl resource, ResourceOperation operation) {
+        Thread thread = new Thread(() -> {
+            try {
+                tm.operateOnResource(handle, resource.getId(), operation);
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package cp1.tests;
+
+import cp1.base.OperationCodec;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+final class OperationCodecImpl implements OperationCodec {
+
+    @Override
+    public void writeResourceId(ResourceId rid, DataOutput out) throws IOException {
+        out.writeInt(((ResourceIdImpl) rid).getValue());
+    }
+
+    @Override
+    public ResourceId readResourceId(DataInput in) throws IOException {
+        return ResourceIdImpl.of(in.readInt());
+    }
+
+    @Override
+    public void writeOperation(ResourceOperation operation, DataOutput out) throws IOException {
+        if (operation == ResourceOpImpl.get()) {
+            out.writeByte(0);
+        } else if (operation == ReadOnlyOpImpl.get()) {
+            out.writeByte(1);
+        } else {
+            throw new IOException("Unknown operation " + operation);
+        }
+    }
+
+    @Override
+    public ResourceOperation readOperation(DataInput in) throws IOException {
+        switch (in.readByte()) {
+            case 0:
+                return ResourceOpImpl.get();
+            case 1:
+                return ReadOnlyOpImpl.get();
+            default:
+                throw new IOException("Unknown operation");
+        }
+    }
+}
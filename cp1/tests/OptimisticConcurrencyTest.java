@@ -0,0 +1,143 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class OptimisticConcurrencyTest {
+
+    private final static int THREADS = 8;
+    private final static int TRANSACTIONS_PER_THREAD = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1, r2)
+            );
+    TransactionManager tm =
+            TransactionManagerFactory.newOptimisticTM(
+                    resources,
+                    new LocalTimeProviderImpl()
+            );
+
+    @Test
+    public void testModificationsAreAppliedAtCommit() throws Exception {
+        TransactionHandle writer = tm.beginTransaction();
+        TransactionHandle reader = tm.beginTransaction();
+        tm.operateOnResource(writer, r1.getId(), ResourceOpImpl.get());
+        tm.operateOnResource(writer, r1.getId(), ResourceOpImpl.get());
+        expectResourceValue(r1, 0);
+        long[] seen = new long[1];
+        tm.operateOnResource(writer, r1.getId(), new ValueReadOp(seen));
+        if (seen[0] != 2) {
+            throw new AssertionError("Transaction does not see its own modifications");
+        }
+        tm.operateOnResource(reader, r1.getId(), new ValueReadOp(seen));
+        if (seen[0] != 0) {
+            throw new AssertionError("Transaction sees uncommitted modifications");
+        }
+        tm.commitTransaction(reader);
+        tm.commitTransaction(writer);
+        expectResourceValue(r1, 2);
+    }
+
+    @Test
+    public void testConflictingCommitAborts() throws Exception {
+        TransactionHandle first = tm.beginTransaction();
+        TransactionHandle second = tm.beginTransaction();
+        tm.operateOnResource(first, r1.getId(), ReadOnlyOpImpl.get());
+        tm.operateOnResource(first, r2.getId(), ResourceOpImpl.get());
+        tm.operateOnResource(second, r1.getId(), ResourceOpImpl.get());
+        tm.commitTransaction(second);
+        try {
+            tm.commitTransaction(first);
+            throw new AssertionError("Committed a transaction which read a modified resource");
+        } catch (ActiveTransactionAborted e) {
+        }
+        if (!tm.isTransactionAborted(first)) {
+            throw new AssertionError("Conflicting transaction is not marked as aborted");
+        }
+        tm.rollbackTransaction(first);
+        expectResourceValue(r1, 1);
+        expectResourceValue(r2, 0);
+    }
+
+    @Test
+    public void testConcurrentReadModifyWrite() throws Exception {
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int committed = 0;
+                    while (committed < TRANSACTIONS_PER_THREAD) {
+                        try {
+                            tm.startTransaction();
+                            tm.operateOnResourceInCurrentTransaction(r1.getId(), ReadOnlyOpImpl.get());
+                            tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+                            tm.operateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get());
+                            tm.commitCurrentTransaction();
+                            committed++;
+                        } catch (ActiveTransactionAborted e) {
+                        } catch (Exception e) {
+                            throw new AssertionError(e);
+                        } finally {
+                            tm.rollbackCurrentTransaction();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        expectResourceValue(r1, THREADS * TRANSACTIONS_PER_THREAD);
+        expectResourceValue(r2, THREADS * TRANSACTIONS_PER_THREAD);
+    }
+
+    private final static class ValueReadOp extends ResourceOperation {
+        private final long[] value;
+
+        private ValueReadOp(long[] value) {
+            this.value = value;
+        }
+
+        @Override
+        public void execute(Resource r) {
+            value[0] = ((ResourceImpl) r).getValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+    }
+
+    private static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package cp1.tests;
+
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ParallelRollbackTest {
+
+    private final static int RESOURCES = 8;
+    private final static int OPERATIONS = 1000;
+    private final static long MAX_WAIT_TIME = 5000;
+
+    List<ResourceImpl> resourceImpls = new ArrayList<>();
+    List<Resource> resources = new ArrayList<>();
+
+    {
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl resource = new ResourceImpl(ResourceIdImpl.generate());
+            resourceImpls.add(resource);
+            resources.add(resource);
+        }
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    TransactionManager tm =
+            TransactionManagerFactory.newTM(
+                    resources,
+                    new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .parallelRollback(pool)
+                            .build()
+            );
+
+    @Test
+    public void testRollbackRestoresAllResources() throws Exception {
+        try {
+            TransactionHandle transaction = tm.beginTransaction();
+            for (int i = 0; i < OPERATIONS; i++) {
+                tm.operateOnResource(transaction, resourceImpls.get(i % RESOURCES).getId(), ResourceOpImpl.get());
+            }
+            tm.rollbackTransaction(transaction);
+            for (ResourceImpl resource : resourceImpls) {
+                expectValue(resource, 0);
+            }
+            if (tm.getStats().getRolledBackTransactions() != 1) {
+                throw new AssertionError("Rollback not counted");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testUndoRunsOnSeveralPoolThreads() throws Exception {
+        try {
+            TransactionHandle transaction = tm.beginTransaction();
+            SlowUndoOp operation = new SlowUndoOp();
+            for (int i = 0; i < OPERATIONS; i++) {
+                tm.operateOnResource(transaction, resourceImpls.get(i % RESOURCES).getId(), operation);
+            }
+            tm.rollbackTransaction(transaction);
+            for (ResourceImpl resource : resourceImpls) {
+                expectValue(resource, 0);
+            }
+            if (operation.undoThreads.size() < 2) {
+                throw new AssertionError("Undone on " + operation.undoThreads + " only");
+            }
+            for (Thread thread : operation.undoThreads) {
+                if (!(thread instanceof ForkJoinWorkerThread)
+                        || ((ForkJoinWorkerThread) thread).getPool() != pool) {
+                    throw new AssertionError("Undone outside of the pool, on " + thread.getName());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testWaitersGetResourcesAfterRollback() throws Exception {
+        try {
+            TransactionHandle transaction = tm.beginTransaction();
+            for (int i = 0; i < OPERATIONS; i++) {
+                tm.operateOnResource(transaction, resourceImpls.get(i % RESOURCES).getId(), ResourceOpImpl.get());
+            }
+            List<Thread> waiters = new ArrayList<>();
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            for (ResourceImpl resource : resourceImpls) {
+                TransactionHandle waiter = tm.beginTransaction();
+                Thread thread = new Thread(() -> {
+                    try {
+                        tm.operateOnResource(waiter, resource.getId(), ResourceOpImpl.get());
+                        tm.commitTransaction(waiter);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                thread.start();
+                waiters.add(thread);
+            }
+            awaitWaits(RESOURCES);
+            tm.rollbackTransaction(transaction);
+            for (Thread thread : waiters) {
+                thread.join(MAX_WAIT_TIME);
+                if (thread.isAlive()) {
+                    throw new AssertionError("Waiter not woken up after the rollback");
+                }
+            }
+            if (failure.get() != null) {
+                throw new AssertionError("Waiter failed", failure.get());
+            }
+            for (ResourceImpl resource : resourceImpls) {
+                expectValue(resource, 1);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits until `waits` transactions have been queued, as each one is counted only
+     * once it is.
+     */
+    private void awaitWaits(long waits) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MAX_WAIT_TIME;
+        while (tm.getStats().getWaits() < waits) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Only " + tm.getStats().getWaits() + " waiters queued");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+
+    /**
+     * Records the threads undoing it, and is slow enough to undo for every worker of the
+     * pool to get a share of the chains.
+     */
+    private static final class SlowUndoOp extends ResourceOperation {
+
+        private final Set<Thread> undoThreads = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void execute(Resource r) {
+            ((ResourceImpl) r).incValue();
+        }
+
+        @Override
+        public void undo(Resource r) {
+            undoThreads.add(Thread.currentThread());
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            ((ResourceImpl) r).decValue();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.base.TransactionPriority;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PriorityQueueingTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1)
+            );
+
+    @Test
+    public void testInteractiveServedBeforeBatch() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+        TransactionHandle holder = tm.beginTransaction();
+        tm.operateOnResource(holder, r1.getId(), ResourceOpImpl.get());
+        TransactionHandle batch = tm.beginTransaction(TransactionPriority.BATCH);
+        Thread batchThread = operateInThread(tm, batch);
+        Thread.sleep(BASE_WAIT_TIME);
+        TransactionHandle interactive = tm.beginTransaction(TransactionPriority.INTERACTIVE);
+        Thread interactiveThread = operateInThread(tm, interactive);
+        Thread.sleep(BASE_WAIT_TIME);
+        tm.commitTransaction(holder);
+        interactiveThread.join(2 * BASE_WAIT_TIME);
+        if (interactiveThread.isAlive() || !batchThread.isAlive()) {
+            throw new AssertionError("Batch transaction served before an interactive one");
+        }
+        tm.commitTransaction(interactive);
+        batchThread.join();
+        tm.commitTransaction(batch);
+        expectValue(r1, 3);
+    }
+
+    @Test
+    public void testFullQueueRejectsWaiter() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                resources,
+                new LocalTimeProviderImpl(),
+                new TransactionManagerConfig.Builder()
+                        .maxWaitQueueDepth(1)
+                        .build()
+        );
+        TransactionHandle holder = tm.beginTransaction();
+        tm.operateOnResource(holder, r1.getId(), ResourceOpImpl.get());
+        TransactionHandle queued = tm.beginTransaction(TransactionPriority.BATCH);
+        Thread queuedThread = operateInThread(tm, queued);
+        Thread.sleep(BASE_WAIT_TIME);
+        TransactionHandle rejected = tm.beginTransaction(TransactionPriority.BATCH);
+        try {
+            tm.operateOnResource(rejected, r1.getId(), ResourceOpImpl.get());
+            throw new AssertionError("Waiter beyond the queue depth not rejected");
+        } catch (ActiveTransactionAborted e) {
+            Thread.interrupted();
+        }
+        tm.rollbackTransaction(rejected);
+        // Other priority classes have a queue of their own.
+        TransactionHandle interactive = tm.beginTransaction(TransactionPriority.INTERACTIVE);
+        Thread interactiveThread = operateInThread(tm, interactive);
+        Thread.sleep(BASE_WAIT_TIME);
+        if (tm.isTransactionAborted(interactive)) {
+            throw new AssertionError("Interactive waiter rejected by a full batch queue");
+        }
+        tm.commitTransaction(holder);
+        interactiveThread.join();
+        tm.commitTransaction(interactive);
+        queuedThread.join();
+        tm.commitTransaction(queued);
+        expectValue(r1, 3);
+    }
+
+    private Thread operateInThread(TransactionManager tm, TransactionHandle handle) {
+        Thread thread = new Thread(() -> {
+            try {
+                tm.operateOnResource(handle, r1.getId(), ResourceOpImpl.get());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package cp1.tests;
+
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+
+final class ReadOnlyOpImpl extends ResourceOperation {
+    private final static ReadOnlyOpImpl singleton = new ReadOnlyOpImpl();
+
+    public static ResourceOperation get() {
+        return singleton;
+    }
+
+    private ReadOnlyOpImpl() {
+    }
+
+    @Override
+    public String toString() {
+        return "READ_" + super.toString();
+    }
+
+    @Override
+    public void execute(Resource r) {
+        if (!(r instanceof ResourceImpl)) {
+            throw new AssertionError("Unexpected resource type " +
+                    r.getClass().getCanonicalName());
+        }
+        ((ResourceImpl) r).getValue();
+    }
+
+    @Override
+    public void undo(Resource r) {
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+}
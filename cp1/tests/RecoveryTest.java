@@ -0,0 +1,361 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionHandle;
+import cp1.solution.StandardDeadlockPolicy;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import cp1.solution.TransactionManagerImpl;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+public class RecoveryTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+    private final static int THREADS = 4;
+    private final static int TRANSACTIONS_PER_THREAD = 200;
+
+    ResourceId id1 = ResourceIdImpl.generate();
+    ResourceId id2 = ResourceIdImpl.generate();
+
+    @Test
+    public void testRestoresCommittedTransactions() throws Exception {
+        Path directory = Files.createTempDirectory("state");
+        try {
+            ResourceImpl r1 = new ResourceImpl(id1);
+            ResourceImpl r2 = new ResourceImpl(id2);
+            TransactionManagerImpl tm = TransactionManagerFactory.newTM(
+                    Arrays.asList(r1, r2), new LocalTimeProviderImpl(), directory, new OperationCodecImpl());
+            for (int i = 0; i < 3; i++) {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(id1, ResourceOpImpl.get());
+                tm.operateOnResourceInCurrentTransaction(id2, ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            }
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(id1, ResourceOpImpl.get());
+            tm.rollbackCurrentTransaction();
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(id2, ResourceOpImpl.get());
+            // Never committed, as if the process has crashed here.
+            tm.shutdown();
+
+            ResourceImpl restored1 = new ResourceImpl(id1);
+            ResourceImpl restored2 = new ResourceImpl(id2);
+            TransactionManagerFactory.newTM(
+                    Arrays.asList(restored1, restored2), new LocalTimeProviderImpl(), directory,
+                    new OperationCodecImpl()).shutdown();
+            expectResourceValue(restored1, 3);
+            expectResourceValue(restored2, 3);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testCheckpointsDuringCommitsTruncateLog() throws Exception {
+        Path directory = Files.createTempDirectory("state");
+        TransactionManagerConfig config = new TransactionManagerConfig.Builder()
+                .stateDirectory(directory, new OperationCodecImpl())
+                .logSegmentSize(1024)
+                .build();
+        try {
+            ResourceImpl r1 = new ResourceImpl(id1);
+            ResourceImpl r2 = new ResourceImpl(id2);
+            TransactionManagerImpl tm = TransactionManagerFactory.newTM(
+                    Arrays.asList(r1, r2), new LocalTimeProviderImpl(), config);
+            ArrayList<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < THREADS; i++) {
+                ResourceId first = i % 2 == 0 ? id1 : id2;
+                ResourceId second = i % 2 == 0 ? id2 : id1;
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        int committed = 0;
+                        while (committed < TRANSACTIONS_PER_THREAD) {
+                            try {
+                                tm.startTransaction();
+                                tm.operateOnResourceInCurrentTransaction(first, ResourceOpImpl.get());
+                                tm.operateOnResourceInCurrentTransaction(second, ResourceOpImpl.get());
+                                tm.commitCurrentTransaction();
+                                committed++;
+                            } catch (Exception e) {
+                                // Aborted as a deadlock victim, try again.
+                                Thread.interrupted();
+                            } finally {
+                                tm.rollbackCurrentTransaction();
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (int i = 0; i < 5; i++) {
+                tm.checkpoint();
+                Thread.sleep(10);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            tm.checkpoint();
+            tm.shutdown();
+            if (fileCount(directory) != 2) {
+                throw new AssertionError("Expected one checkpoint and one log segment, found "
+                        + fileCount(directory) + " files");
+            }
+
+            ResourceImpl restored1 = new ResourceImpl(id1);
+            ResourceImpl restored2 = new ResourceImpl(id2);
+            TransactionManagerFactory.newTM(
+                    Arrays.asList(restored1, restored2), new LocalTimeProviderImpl(), config).shutdown();
+            expectResourceValue(restored1, THREADS * TRANSACTIONS_PER_THREAD);
+            expectResourceValue(restored2, THREADS * TRANSACTIONS_PER_THREAD);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testResourceWithoutSavedStateIsRejected() throws Exception {
+        Path directory = Files.createTempDirectory("state");
+        try {
+            TransactionManagerFactory.newTM(
+                    Collections.singletonList(new Resource(id1)), new LocalTimeProviderImpl(), directory,
+                    new OperationCodecImpl());
+            throw new AssertionError("Manager persisting a resource without saved state created");
+        } catch (IllegalArgumentException e) {
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testFailedPeriodicCheckpointsAreCountedAndRetried() throws Exception {
+        Path directory = Files.createTempDirectory("state");
+        try {
+            TransactionManagerImpl tm = TransactionManagerFactory.newTM(
+                    Collections.singletonList(new UnsavableResource(id1)), new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .stateDirectory(directory, new OperationCodecImpl())
+                            .checkpointInterval(20, TimeUnit.MILLISECONDS)
+                            .build());
+            Thread.sleep(500);
+            tm.shutdown();
+            if (tm.getStats().getFailedCheckpoints() < 2) {
+                throw new AssertionError("Periodic checkpoints stopped after a failure: " + tm.getStats());
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testCheckpointIsNeverTheDeadlockVictim() throws Exception {
+        Path directory = Files.createTempDirectory("state");
+        try {
+            TransactionManagerImpl tm = TransactionManagerFactory.newTM(
+                    Arrays.asList(new ResourceImpl(id1), new ResourceImpl(id2)), new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .stateDirectory(directory, new OperationCodecImpl())
+                            .deadlockPolicy(StandardDeadlockPolicy.DETECT_ABORT_FEWEST_UNDO)
+                            .build());
+            TransactionHandle user = tm.beginTransaction();
+            tm.operateOnResource(user, id2, ResourceOpImpl.get());
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread checkpointing = checkpointInThread(tm, failure);
+            // The checkpoint, with no undo entries, holds the first resource and waits for
+            // the second one.
+            Thread.sleep(BASE_WAIT_TIME);
+            try {
+                tm.operateOnResource(user, id1, ResourceOpImpl.get());
+                throw new AssertionError("Checkpoint chosen as the victim of a deadlock");
+            } catch (ActiveTransactionAborted e) {
+                Thread.interrupted();
+            }
+            tm.rollbackTransaction(user);
+            expectCheckpointed(checkpointing, failure);
+            tm.shutdown();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testCheckpointIsNotBoundByWaitQueueDepth() throws Exception {
+        Path directory = Files.createTempDirectory("state");
+        try {
+            TransactionManagerImpl tm = TransactionManagerFactory.newTM(
+                    Arrays.asList(new ResourceImpl(id1), new ResourceImpl(id2)), new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .stateDirectory(directory, new OperationCodecImpl())
+                            .maxWaitQueueDepth(1)
+                            .build());
+            TransactionHandle holder = tm.beginTransaction();
+            tm.operateOnResource(holder, id1, ResourceOpImpl.get());
+            TransactionHandle waiter = tm.beginTransaction();
+            Thread waiting = new Thread(() -> {
+                try {
+                    tm.operateOnResource(waiter, id1, ResourceOpImpl.get());
+                    tm.commitTransaction(waiter);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            waiting.start();
+            Thread.sleep(BASE_WAIT_TIME);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread checkpointing = checkpointInThread(tm, failure);
+            Thread.sleep(BASE_WAIT_TIME);
+            if (tm.getStats().getWaits() != 2) {
+                throw new AssertionError("Checkpoint not queued behind a full queue: " + tm.getStats());
+            }
+            tm.commitTransaction(holder);
+            waiting.join();
+            expectCheckpointed(checkpointing, failure);
+            tm.shutdown();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testCommitFailingToSaveVersionsIsNotLogged() throws Exception {
+        Path directory = Files.createTempDirectory("state");
+        TransactionManagerConfig config = new TransactionManagerConfig.Builder()
+                .stateDirectory(directory, new OperationCodecImpl())
+                .snapshotReads()
+                .build();
+        try {
+            ResourceImpl r1 = new ResourceImpl(id1);
+            BreakableResource r2 = new BreakableResource(id2);
+            TransactionManagerImpl tm = TransactionManagerFactory.newTM(
+                    Arrays.asList(r1, r2), new LocalTimeProviderImpl(), config);
+            tm.startTransaction();
+            tm.acquireAllInCurrentTransaction(Arrays.asList(id1, id2));
+            tm.operateOnResourceInCurrentTransaction(id1, ResourceOpImpl.get());
+            r2.broken = true;
+            try {
+                tm.commitCurrentTransaction();
+                throw new AssertionError("Committed without saving a version");
+            } catch (IllegalStateException e) {
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+            r2.broken = false;
+            expectResourceValue(r1, 0);
+            tm.shutdown();
+
+            ResourceImpl restored1 = new ResourceImpl(id1);
+            TransactionManagerFactory.newTM(
+                    Arrays.asList(restored1, new BreakableResource(id2)), new LocalTimeProviderImpl(),
+                    config).shutdown();
+            expectResourceValue(restored1, 0);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static final class BreakableResource extends Resource {
+
+        private volatile boolean broken;
+
+        BreakableResource(ResourceId id) {
+            super(id);
+        }
+
+        @Override
+        public void saveState(DataOutput out) throws IOException {
+            if (broken) {
+                throw new IOException("Resource " + getId() + " is broken");
+            }
+        }
+
+        @Override
+        public void restoreState(DataInput in) {
+        }
+
+        @Override
+        public Resource newInstance() {
+            return new BreakableResource(getId());
+        }
+    }
+
+    private static final class UnsavableResource extends Resource {
+
+        UnsavableResource(ResourceId id) {
+            super(id);
+        }
+
+        @Override
+        public void saveState(DataOutput out) {
+            throw new IllegalStateException("Resource " + getId() + " is broken");
+        }
+
+        @Override
+        public void restoreState(DataInput in) {
+        }
+    }
+
+    private static Thread checkpointInThread(TransactionManagerImpl tm, AtomicReference<Exception> failure) {
+        Thread thread = new Thread(() -> {
+            try {
+                tm.checkpoint();
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void expectCheckpointed(Thread checkpointing, AtomicReference<Exception> failure)
+            throws InterruptedException {
+        checkpointing.join(10 * BASE_WAIT_TIME);
+        if (checkpointing.isAlive()) {
+            throw new AssertionError("Checkpoint not finished");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Checkpoint failed", failure.get());
+        }
+    }
+
+    private static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+
+    private static long fileCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
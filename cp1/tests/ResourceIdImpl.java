@@ -9,12 +9,20 @@ final class ResourceIdImpl implements ResourceId {
         return new ResourceIdImpl(next++);
     }
 
+    public static ResourceId of(int value) {
+        return new ResourceIdImpl(value);
+    }
+
     private final int value;
 
     private ResourceIdImpl(int value) {
         this.value = value;
     }
 
+    public int getValue() {
+        return this.value;
+    }
+
     @Override
     public int compareTo(ResourceId other) {
         if (!(other instanceof ResourceIdImpl)) {
@@ -3,6 +3,10 @@ package cp1.tests;
 import cp1.base.Resource;
 import cp1.base.ResourceId;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 final class ResourceImpl extends Resource {
     private volatile long value = 0;
 
@@ -25,4 +29,19 @@ final class ResourceImpl extends Resource {
     public long getValue() {
         return this.value;
     }
+
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(this.value);
+    }
+
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        this.value = in.readLong();
+    }
+
+    @Override
+    public Resource newInstance() {
+        return new ResourceImpl(getId());
+    }
 }
@@ -0,0 +1,117 @@
+package cp1.tests;
+
+import cp1.base.Resource;
+import cp1.base.Savepoint;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SavepointTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1, r2)
+            );
+
+    @Test
+    public void testRollbackUndoesOnlyTail() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+        tm.startTransaction();
+        tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+        Savepoint savepoint = tm.setSavepointInCurrentTransaction();
+        tm.operateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get());
+        tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+        tm.rollbackCurrentTransactionToSavepoint(savepoint, false);
+        expectValue(r1, 1);
+        expectValue(r2, 0);
+        tm.operateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get());
+        tm.commitCurrentTransaction();
+        expectValue(r1, 1);
+        expectValue(r2, 1);
+    }
+
+    @Test
+    public void testRollbackReleasesLaterResources() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+        TransactionHandle transaction = tm.beginTransaction();
+        tm.operateOnResource(transaction, r1.getId(), ResourceOpImpl.get());
+        Savepoint savepoint = tm.setSavepoint(transaction);
+        tm.operateOnResource(transaction, r2.getId(), ResourceOpImpl.get());
+        tm.rollbackToSavepoint(transaction, savepoint, true);
+        TransactionHandle other = tm.beginTransaction();
+        Thread otherThread = new Thread(() -> {
+            try {
+                tm.operateOnResource(other, r2.getId(), ResourceOpImpl.get());
+                tm.operateOnResource(other, r1.getId(), ResourceOpImpl.get());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        otherThread.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        expectValue(r2, 1);
+        if (!otherThread.isAlive()) {
+            throw new AssertionError("Resource acquired before the savepoint released");
+        }
+        tm.commitTransaction(transaction);
+        otherThread.join();
+        tm.commitTransaction(other);
+        expectValue(r1, 2);
+        expectValue(r2, 1);
+    }
+
+    @Test
+    public void testLaterSavepointsAreDropped() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl());
+        TransactionHandle transaction = tm.beginTransaction();
+        Savepoint first = tm.setSavepoint(transaction);
+        tm.operateOnResource(transaction, r1.getId(), ResourceOpImpl.get());
+        Savepoint second = tm.setSavepoint(transaction);
+        tm.rollbackToSavepoint(transaction, first, false);
+        expectRejected(tm, transaction, second);
+        TransactionHandle other = tm.beginTransaction();
+        expectRejected(tm, other, first);
+        tm.rollbackToSavepoint(transaction, first, false);
+        tm.commitTransaction(transaction);
+        tm.rollbackTransaction(other);
+        expectValue(r1, 0);
+    }
+
+    @Test
+    public void testOptimisticRollbackForgetsBufferedOperations() throws Exception {
+        TransactionManager tm = TransactionManagerFactory.newOptimisticTM(resources, new LocalTimeProviderImpl());
+        TransactionHandle transaction = tm.beginTransaction();
+        tm.operateOnResource(transaction, r1.getId(), ResourceOpImpl.get());
+        Savepoint savepoint = tm.setSavepoint(transaction);
+        tm.operateOnResource(transaction, r2.getId(), ResourceOpImpl.get());
+        tm.rollbackToSavepoint(transaction, savepoint, true);
+        tm.commitTransaction(transaction);
+        expectValue(r1, 1);
+        expectValue(r2, 0);
+    }
+
+    private void expectRejected(TransactionManager tm, TransactionHandle transaction, Savepoint savepoint)
+            throws Exception {
+        try {
+            tm.rollbackToSavepoint(transaction, savepoint, false);
+            throw new AssertionError("Rolled back to a savepoint not on the transaction's stack");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.AllocationGraph;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ShardedLockTableTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+    private final static int SHARDS = 8;
+    private final static int RESOURCES = 32;
+    private final static int ID_STRIDE = 10007;
+
+    List<ResourceImpl> resourceImpls = new ArrayList<>();
+    List<Resource> resources = new ArrayList<>();
+
+    {
+        // Consecutive ids would all hash to the same shard.
+        for (int i = 0; i < RESOURCES; i++) {
+            ResourceImpl resource = new ResourceImpl(ResourceIdImpl.of(ID_STRIDE * i));
+            resourceImpls.add(resource);
+            resources.add(resource);
+        }
+    }
+
+    TransactionManager tm = TransactionManagerFactory.newShardedTM(resources, new LocalTimeProviderImpl(), SHARDS);
+
+    @Test
+    public void testDeadlocksWithinAndAcrossShardsAreDetected() throws Exception {
+        // Found by the shard's own detector.
+        expectDeadlockResolved(pair(true));
+        // Found by the global detector only.
+        expectDeadlockResolved(pair(false));
+    }
+
+    @Test
+    public void testCycleThroughThreeTransactionsIsDetected() throws Exception {
+        AtomicInteger aborted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            threads.add(lockInOrder(resourceImpls.get(i), resourceImpls.get((i + 1) % 3), aborted));
+        }
+        for (Thread thread : threads) {
+            thread.join(10 * BASE_WAIT_TIME);
+            if (thread.isAlive()) {
+                throw new AssertionError("Cycle of three transactions not resolved");
+            }
+        }
+        if (aborted.get() != 1) {
+            throw new AssertionError("Unexpected number of victims: " + aborted.get());
+        }
+    }
+
+    /**
+     * @return two resources the lock table puts into one shard, or into two different ones.
+     */
+    private ResourceImpl[] pair(boolean sameShard) {
+        for (int i = 0; i < RESOURCES; i++) {
+            for (int j = i + 1; j < RESOURCES; j++) {
+                ResourceImpl a = resourceImpls.get(i);
+                ResourceImpl b = resourceImpls.get(j);
+                boolean together = AllocationGraph.shardIndex(a.getId(), SHARDS)
+                        == AllocationGraph.shardIndex(b.getId(), SHARDS);
+                if (together == sameShard) {
+                    return new ResourceImpl[]{a, b};
+                }
+            }
+        }
+        throw new AssertionError("No pair of resources " + (sameShard ? "within a shard" : "across shards"));
+    }
+
+    private void expectDeadlockResolved(ResourceImpl[] pair) throws InterruptedException {
+        ResourceImpl a = pair[0];
+        ResourceImpl b = pair[1];
+        long before = a.getValue() + b.getValue();
+        AtomicInteger aborted = new AtomicInteger();
+        Thread first = lockInOrder(a, b, aborted);
+        Thread second = lockInOrder(b, a, aborted);
+        first.join(10 * BASE_WAIT_TIME);
+        second.join(10 * BASE_WAIT_TIME);
+        if (first.isAlive() || second.isAlive() || aborted.get() != 1) {
+            throw new AssertionError("Deadlock on " + a.getId() + " and " + b.getId() + " not resolved");
+        }
+        if (a.getValue() + b.getValue() != before + 2) {
+            throw new AssertionError("Operations of the deadlock victim not undone");
+        }
+    }
+
+    private Thread lockInOrder(ResourceImpl first, ResourceImpl second, AtomicInteger aborted) {
+        Thread thread = new Thread(() -> {
+            try {
+                tm.startTransaction();
+                tm.operateOnResourceInCurrentTransaction(first.getId(), ResourceOpImpl.get());
+                Thread.sleep(BASE_WAIT_TIME);
+                tm.operateOnResourceInCurrentTransaction(second.getId(), ResourceOpImpl.get());
+                tm.commitCurrentTransaction();
+            } catch (ActiveTransactionAborted e) {
+                aborted.incrementAndGet();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                tm.rollbackCurrentTransaction();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,163 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AnotherTransactionActiveException;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TransactionManager;
+import cp1.base.UnknownResourceIdException;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SharedAccessTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources = Collections.singletonList(r1);
+    TransactionManager tm =
+            TransactionManagerFactory.newTM(
+                    resources,
+                    new LocalTimeProviderImpl()
+            );
+
+    @Test
+    public void testReadersDoNotWaitForEachOther() {
+        AtomicBoolean firstCommitted = new AtomicBoolean(false);
+        AtomicBoolean secondCommittedFirst = new AtomicBoolean(false);
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTransaction(0, ReadOnlyOpImpl.get(), ReadOnlyOpImpl.get(), 2 * BASE_WAIT_TIME);
+                firstCommitted.set(true);
+            }
+        }));
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTransaction(BASE_WAIT_TIME, ReadOnlyOpImpl.get(), ReadOnlyOpImpl.get(), 0);
+                secondCommittedFirst.set(!firstCommitted.get());
+            }
+        }));
+        runAll(threads);
+        if (!secondCommittedFirst.get()) {
+            throw new AssertionError("Reader waited for another reader");
+        }
+    }
+
+    @Test
+    public void testWriterWaitsForReaders() {
+        AtomicBoolean readerCommitted = new AtomicBoolean(false);
+        AtomicBoolean writerCommittedLater = new AtomicBoolean(false);
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTransaction(0, ReadOnlyOpImpl.get(), ReadOnlyOpImpl.get(), 2 * BASE_WAIT_TIME);
+                readerCommitted.set(true);
+            }
+        }));
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTransaction(BASE_WAIT_TIME, ResourceOpImpl.get(), ReadOnlyOpImpl.get(), 0);
+                writerCommittedLater.set(readerCommitted.get());
+            }
+        }));
+        runAll(threads);
+        if (!writerCommittedLater.get()) {
+            throw new AssertionError("Writer did not wait for the reader");
+        }
+        expectResourceValue(r1, 1);
+    }
+
+    @Test
+    public void testConcurrentUpgradesDeadlock() {
+        AtomicInteger aborted = new AtomicInteger(0);
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            long delay = i * BASE_WAIT_TIME;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(delay);
+                        tm.startTransaction();
+                        tm.operateOnResourceInCurrentTransaction(r1.getId(), ReadOnlyOpImpl.get());
+                        Thread.sleep(2 * BASE_WAIT_TIME - delay);
+                        tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+                        tm.commitCurrentTransaction();
+                    } catch (ActiveTransactionAborted e) {
+                        aborted.incrementAndGet();
+                    } catch (InterruptedException |
+                            AnotherTransactionActiveException |
+                            NoActiveTransactionException |
+                            UnknownResourceIdException |
+                            ResourceOperationException e) {
+                        throw new AssertionError(e);
+                    } finally {
+                        tm.rollbackCurrentTransaction();
+                    }
+                }
+            }));
+        }
+        runAll(threads);
+        if (aborted.get() != 1) {
+            throw new AssertionError("Expected exactly one aborted upgrade, got " + aborted.get());
+        }
+        expectResourceValue(r1, 1);
+    }
+
+    private void runTransaction(long delay, ResourceOperation first, ResourceOperation second, long hold) {
+        try {
+            Thread.sleep(delay);
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(r1.getId(), first);
+            Thread.sleep(hold);
+            tm.operateOnResourceInCurrentTransaction(r1.getId(), second);
+            tm.commitCurrentTransaction();
+        } catch (InterruptedException |
+                AnotherTransactionActiveException |
+                ActiveTransactionAborted |
+                NoActiveTransactionException |
+                UnknownResourceIdException |
+                ResourceOperationException e) {
+            throw new AssertionError(e);
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+    }
+
+    private static void runAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            t.start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join(10 * BASE_WAIT_TIME);
+            }
+        } catch (InterruptedException e) {
+            throw new AssertionError("The main thread has been interrupted");
+        }
+    }
+
+    private final static void expectResourceValue(ResourceImpl r, long val) {
+        if (r.getValue() != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            ", but got value " + r.getValue()
+            );
+        }
+    }
+}
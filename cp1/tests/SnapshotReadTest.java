@@ -0,0 +1,171 @@
+package cp1.tests;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.SnapshotReader;
+import cp1.base.TransactionHandle;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SnapshotReadTest {
+
+    private final static int WRITERS = 4;
+    private final static int TRANSACTIONS_PER_WRITER = 1000;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+
+    List<Resource> resources =
+            Collections.unmodifiableList(
+                    Arrays.asList(r1, r2)
+            );
+    TransactionManager tm =
+            TransactionManagerFactory.newTM(
+                    resources,
+                    new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .snapshotReads()
+                            .build()
+            );
+
+    @Test
+    public void testSnapshotDoesNotWaitForWriter() throws Exception {
+        TransactionHandle writer = tm.beginTransaction();
+        tm.operateOnResource(writer, r1.getId(), ResourceOpImpl.get());
+        try (SnapshotReader before = tm.openSnapshot()) {
+            expectSnapshotValue(before, r1, 0);
+            tm.commitTransaction(writer);
+            expectSnapshotValue(before, r1, 0);
+            try (SnapshotReader after = tm.openSnapshot()) {
+                expectSnapshotValue(after, r1, 1);
+            }
+        }
+        try (SnapshotReader snapshot = tm.openSnapshot()) {
+            try {
+                snapshot.read(r1.getId(), ResourceOpImpl.get());
+                throw new AssertionError("Modified a snapshot");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotsAreConsistentDuringCommits() throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ArrayList<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; i++) {
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < TRANSACTIONS_PER_WRITER; j++) {
+                            tm.startTransaction();
+                            tm.acquireAllInCurrentTransaction(Arrays.asList(r1.getId(), r2.getId()));
+                            tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+                            tm.operateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get());
+                            tm.commitCurrentTransaction();
+                        }
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : writers) {
+            t.start();
+        }
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Thread t : writers) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                writing.set(false);
+            }
+        });
+        stopper.start();
+        long previous = 0;
+        while (writing.get()) {
+            try (SnapshotReader snapshot = tm.openSnapshot()) {
+                long value = snapshotValue(snapshot, r1);
+                expectSnapshotValue(snapshot, r2, value);
+                if (value < previous) {
+                    throw new AssertionError("Snapshot is older than a previous one");
+                }
+                previous = value;
+            }
+        }
+        stopper.join();
+        try (SnapshotReader snapshot = tm.openSnapshot()) {
+            expectSnapshotValue(snapshot, r1, WRITERS * TRANSACTIONS_PER_WRITER);
+            expectSnapshotValue(snapshot, r2, WRITERS * TRANSACTIONS_PER_WRITER);
+        }
+    }
+
+    @Test
+    public void testResourceWithoutCopiesIsRejected() throws Exception {
+        try {
+            TransactionManagerFactory.newTM(
+                    Collections.singletonList(new Resource(ResourceIdImpl.generate())),
+                    new LocalTimeProviderImpl(),
+                    new TransactionManagerConfig.Builder()
+                            .snapshotReads()
+                            .build());
+            throw new AssertionError("Manager reading snapshots of a resource without copies created");
+        } catch (IllegalArgumentException e) {
+        }
+        ResourceId group = ResourceIdImpl.generate();
+        try {
+            tm.registerResource(new Resource(ResourceIdImpl.generate()), group);
+            throw new AssertionError("Registered a resource without copies");
+        } catch (IllegalArgumentException e) {
+        }
+        if (!tm.registerResource(new ResourceImpl(group))) {
+            throw new AssertionError("Rejected resource left a group behind");
+        }
+    }
+
+    private static long snapshotValue(SnapshotReader snapshot, ResourceImpl r) throws Exception {
+        long[] value = new long[1];
+        snapshot.read(r.getId(), new ResourceOperation() {
+            @Override
+            public void execute(Resource resource) {
+                value[0] = ((ResourceImpl) resource).getValue();
+            }
+
+            @Override
+            public void undo(Resource resource) {
+            }
+
+            @Override
+            public boolean isReadOnly() {
+                return true;
+            }
+        });
+        return value[0];
+    }
+
+    private static void expectSnapshotValue(SnapshotReader snapshot, ResourceImpl r, long val) throws Exception {
+        long value = snapshotValue(snapshot, r);
+        if (value != val) {
+            throw new AssertionError(
+                    "For resource " + r.getId() +
+                            ", expected value " + val +
+                            " in the snapshot, but got value " + value
+            );
+        }
+    }
+}
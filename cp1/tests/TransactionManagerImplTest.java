@@ -5,7 +5,9 @@ import cp1.base.AnotherTransactionActiveException;
 import cp1.base.NoActiveTransactionException;
 import cp1.base.Resource;
 import cp1.base.ResourceOperationException;
+import cp1.base.TransactionHandle;
 import cp1.base.TransactionManager;
+import cp1.base.TransactionManagerStats;
 import cp1.base.UnknownResourceIdException;
 import cp1.solution.TransactionManagerFactory;
 import org.junit.Test;
@@ -13,6 +15,7 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class TransactionManagerImplTest {
 
@@ -260,6 +263,136 @@ public class TransactionManagerImplTest {
         expectResourceValue(r1, 100);
     }
 
+    @Test
+    public void testTryAndTimedOperationOnOwnedResource() throws InterruptedException {
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tm.startTransaction();
+                    tm.operateOnResourceInCurrentTransaction(
+                            r1.getId(),
+                            ResourceOpImpl.get()
+                    );
+                    Thread.sleep(4 * BASE_WAIT_TIME);
+                    tm.commitCurrentTransaction();
+                } catch (InterruptedException |
+                        AnotherTransactionActiveException |
+                        ActiveTransactionAborted |
+                        NoActiveTransactionException |
+                        UnknownResourceIdException |
+                        ResourceOperationException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    tm.rollbackCurrentTransaction();
+                }
+            }
+        });
+        owner.start();
+        Thread.sleep(BASE_WAIT_TIME);
+        try {
+            tm.startTransaction();
+            if (tm.tryOperateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get())) {
+                throw new AssertionError("Acquired a resource owned by another transaction");
+            }
+            if (tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get(),
+                    BASE_WAIT_TIME, TimeUnit.MILLISECONDS)) {
+                throw new AssertionError("Acquired a resource before the owner committed");
+            }
+            if (!tm.isTransactionActive() || tm.isTransactionAborted()) {
+                throw new AssertionError("Timeout should leave the transaction active");
+            }
+            if (!tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get(),
+                    10 * BASE_WAIT_TIME, TimeUnit.MILLISECONDS)) {
+                throw new AssertionError("Failed to acquire a released resource");
+            }
+            tm.commitCurrentTransaction();
+        } catch (AnotherTransactionActiveException |
+                ActiveTransactionAborted |
+                NoActiveTransactionException |
+                UnknownResourceIdException |
+                ResourceOperationException e) {
+            throw new AssertionError(e);
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        owner.join();
+        expectResourceValue(r1, 2);
+    }
+
+    @Test
+    public void testHandlePassedBetweenThreads() throws InterruptedException {
+        TransactionHandle handle = tm.beginTransaction();
+        if (tm.isTransactionActive()) {
+            throw new AssertionError("Handle transaction should not be bound to the thread");
+        }
+        for (int i = 0; i < 2; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        tm.operateOnResource(handle, r1.getId(), ResourceOpImpl.get());
+                    } catch (InterruptedException |
+                            ActiveTransactionAborted |
+                            NoActiveTransactionException |
+                            UnknownResourceIdException |
+                            ResourceOperationException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        try {
+            tm.commitTransaction(handle);
+        } catch (NoActiveTransactionException | ActiveTransactionAborted e) {
+            throw new AssertionError(e);
+        }
+        expectResourceValue(r1, 2);
+        try {
+            tm.commitTransaction(handle);
+            throw new AssertionError("Committed a finished transaction");
+        } catch (NoActiveTransactionException e) {
+        } catch (ActiveTransactionAborted e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void testStatsCountTransactions() {
+        try {
+            tm.startTransaction();
+            for (int i = 0; i < 3; i++) {
+                tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+            }
+            tm.rollbackCurrentTransaction();
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+            tm.commitCurrentTransaction();
+        } catch (InterruptedException |
+                AnotherTransactionActiveException |
+                ActiveTransactionAborted |
+                NoActiveTransactionException |
+                UnknownResourceIdException |
+                ResourceOperationException e) {
+            throw new AssertionError(e);
+        } finally {
+            tm.rollbackCurrentTransaction();
+        }
+        TransactionManagerStats stats = tm.getStats();
+        if (stats.getStartedTransactions() != 2
+                || stats.getCommittedTransactions() != 1
+                || stats.getRolledBackTransactions() != 1
+                || stats.getAbortedTransactions() != 0
+                || stats.getWaits() != 0) {
+            throw new AssertionError("Unexpected stats: " + stats);
+        }
+        if (stats.getRollbackLengths().getMax() != 3) {
+            throw new AssertionError("Unexpected rollback lengths: " + stats.getRollbackLengths());
+        }
+    }
+
     @Test
     public void testIsTransactionActive() {
         assert !tm.isTransactionActive();
@@ -1,8 +1,14 @@
 package cp1.tests;
 
+import cp1.base.ResourceId;
+import cp1.solution.LockMode;
+import cp1.solution.ResourceSet;
 import cp1.solution.Transaction;
+import cp1.solution.UndoLog;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -10,12 +16,48 @@ public class TransactionTest {
 
     @Test
     public void testEqualsAndHashcode() {
-        Transaction transaction = new Transaction(Thread.currentThread(), System.currentTimeMillis());
+        Transaction transaction = new Transaction(1, System.currentTimeMillis());
         ConcurrentMap<Transaction, Boolean> map = new ConcurrentHashMap<>();
         map.put(transaction, true);
         assert map.containsKey(transaction);
-        Transaction transaction1 = new Transaction(Thread.currentThread(), System.currentTimeMillis());
-        assert map.containsKey(transaction1);
+        assert map.containsKey(new Transaction(1, System.currentTimeMillis()));
+        Transaction transaction1 = new Transaction(2, System.currentTimeMillis());
+        assert !map.containsKey(transaction1);
+    }
+
+    @Test
+    public void testAcquiredResourcesBeyondInlineCapacity() {
+        ResourceSet set = new ResourceSet();
+        List<ResourceId> rids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rids.add(ResourceIdImpl.generate());
+            set.put(rids.get(i), LockMode.SHARED);
+        }
+        set.put(rids.get(7), LockMode.EXCLUSIVE);
+        assert set.size() == 10;
+        for (int i = 0; i < 10; i++) {
+            assert set.idAt(i).equals(rids.get(i));
+            assert set.modeOf(rids.get(i)) == (i == 7 ? LockMode.EXCLUSIVE : LockMode.SHARED);
+        }
+        set.clear();
+        assert set.size() == 0;
+        assert set.modeOf(rids.get(0)) == null;
+    }
+
+    @Test
+    public void testUndoLogKeepsOrderAfterReuse() {
+        UndoLog log = new UndoLog();
+        ResourceId rid = ResourceIdImpl.generate();
+        for (int i = 0; i < 100; i++) {
+            log.add(rid, ResourceOpImpl.get());
+        }
+        log.clear();
+        ResourceId other = ResourceIdImpl.generate();
+        log.add(other, ReadOnlyOpImpl.get());
+        log.add(rid, ResourceOpImpl.get());
+        assert log.size() == 2;
+        assert log.resourceAt(0).equals(other) && log.operationAt(0) == ReadOnlyOpImpl.get();
+        assert log.resourceAt(1).equals(rid) && log.operationAt(1) == ResourceOpImpl.get();
     }
 
 }
@@ -0,0 +1,217 @@
+package cp1.tests;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TransactionHandle;
+import cp1.base.UnknownResourceIdException;
+import cp1.solution.DistributedTransaction;
+import cp1.solution.LoopbackParticipant;
+import cp1.solution.Participant;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import cp1.solution.TransactionManagerImpl;
+import cp1.solution.TwoPhaseCommitCoordinator;
+import cp1.solution.WaitForEdge;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TwoPhaseCommitTest {
+
+    private final static long BASE_WAIT_TIME = 500;
+
+    ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+    ResourceImpl r2 = new ResourceImpl(ResourceIdImpl.generate());
+
+    TransactionManagerImpl tm1 = newNode(r1);
+    TransactionManagerImpl tm2 = newNode(r2);
+    TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(
+            Arrays.asList(new LoopbackParticipant(tm1), new LoopbackParticipant(tm2)));
+
+    @Test
+    public void testCommitAppliesAllBranches() throws Exception {
+        DistributedTransaction transaction = coordinator.begin();
+        coordinator.operate(transaction, 0, r1.getId(), ResourceOpImpl.get());
+        coordinator.operate(transaction, 1, r2.getId(), ResourceOpImpl.get());
+        coordinator.commit(transaction);
+        expectValue(r1, 1);
+        expectValue(r2, 1);
+    }
+
+    @Test
+    public void testFailedCommitOfOneBranchCommitsTheOthers() throws Exception {
+        TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(
+                Arrays.asList(new Disconnecting(new LoopbackParticipant(tm1), false), new LoopbackParticipant(tm2)));
+        DistributedTransaction transaction = coordinator.begin();
+        coordinator.operate(transaction, 0, r1.getId(), ResourceOpImpl.get());
+        coordinator.operate(transaction, 1, r2.getId(), ResourceOpImpl.get());
+        try {
+            coordinator.commit(transaction);
+            throw new AssertionError("Failure to commit a branch not reported");
+        } catch (IllegalStateException e) {
+        }
+        expectValue(r2, 1);
+        tm2.startTransaction();
+        if (!tm2.tryOperateOnResourceInCurrentTransaction(r2.getId(), ResourceOpImpl.get())) {
+            throw new AssertionError("Committed branch still holds its resources");
+        }
+        tm2.commitCurrentTransaction();
+        expectValue(r2, 2);
+    }
+
+    @Test
+    public void testFailedPrepareIsTheCauseOfTheAbort() throws Exception {
+        TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(
+                Arrays.asList(new LoopbackParticipant(tm1), new Disconnecting(new LoopbackParticipant(tm2), true)));
+        DistributedTransaction transaction = coordinator.begin();
+        coordinator.operate(transaction, 0, r1.getId(), ResourceOpImpl.get());
+        coordinator.operate(transaction, 1, r2.getId(), ResourceOpImpl.get());
+        try {
+            coordinator.commit(transaction);
+            throw new AssertionError("Transaction with an unprepared branch committed");
+        } catch (ActiveTransactionAborted e) {
+            if (!(e.getCause() instanceof IllegalStateException)) {
+                throw new AssertionError("Failure to prepare a branch lost", e);
+            }
+        }
+        expectValue(r1, 0);
+        expectValue(r2, 0);
+    }
+
+    @Test
+    public void testPreparedTransactionIsNotAborted() throws Exception {
+        TransactionHandle transaction = tm1.beginTransaction();
+        tm1.operateOnResource(transaction, r1.getId(), ResourceOpImpl.get());
+        tm1.prepareTransaction(transaction);
+        tm1.abortTransaction(transaction);
+        try {
+            tm1.operateOnResource(transaction, r1.getId(), ResourceOpImpl.get());
+            throw new AssertionError("Prepared transaction performed an operation");
+        } catch (IllegalStateException e) {
+        }
+        tm1.commitTransaction(transaction);
+        expectValue(r1, 1);
+    }
+
+    @Test
+    public void testDeadlockAcrossManagersIsBroken() throws Exception {
+        AtomicInteger aborted = new AtomicInteger();
+        Thread first = lockInOrder(0, r1, 1, r2, aborted);
+        Thread second = lockInOrder(1, r2, 0, r1, aborted);
+        Thread.sleep(2 * BASE_WAIT_TIME);
+        if (!first.isAlive() || !second.isAlive()) {
+            throw new AssertionError("Deadlock across managers resolved by a single manager");
+        }
+        if (coordinator.detectDeadlocks() != 1) {
+            throw new AssertionError("Deadlock across managers not detected");
+        }
+        first.join(10 * BASE_WAIT_TIME);
+        second.join(10 * BASE_WAIT_TIME);
+        if (first.isAlive() || second.isAlive() || aborted.get() != 1) {
+            throw new AssertionError("Deadlock across managers not resolved");
+        }
+        expectValue(r1, 1);
+        expectValue(r2, 1);
+    }
+
+    /**
+     * Loses the connection to its participant before the prepare or the commit of every
+     * branch.
+     */
+    private static final class Disconnecting implements Participant {
+
+        private final Participant participant;
+        private final boolean beforePrepare;
+
+        Disconnecting(Participant participant, boolean beforePrepare) {
+            this.participant = participant;
+            this.beforePrepare = beforePrepare;
+        }
+
+        @Override
+        public long begin() {
+            return participant.begin();
+        }
+
+        @Override
+        public void operate(long transactionId, ResourceId rid, ResourceOperation operation)
+                throws NoActiveTransactionException,
+                UnknownResourceIdException,
+                ActiveTransactionAborted,
+                ResourceOperationException,
+                InterruptedException {
+            participant.operate(transactionId, rid, operation);
+        }
+
+        @Override
+        public void prepare(long transactionId) throws NoActiveTransactionException, ActiveTransactionAborted {
+            if (beforePrepare) {
+                throw new IllegalStateException("Connection lost");
+            }
+            participant.prepare(transactionId);
+        }
+
+        @Override
+        public void commit(long transactionId) {
+            if (!beforePrepare) {
+                throw new IllegalStateException("Connection lost");
+            }
+            participant.commit(transactionId);
+        }
+
+        @Override
+        public void rollback(long transactionId) {
+            participant.rollback(transactionId);
+        }
+
+        @Override
+        public void abort(long transactionId) {
+            participant.abort(transactionId);
+        }
+
+        @Override
+        public List<WaitForEdge> getWaitForEdges() {
+            return participant.getWaitForEdges();
+        }
+    }
+
+    private Thread lockInOrder(int firstNode, ResourceImpl firstResource, int secondNode,
+                               ResourceImpl secondResource, AtomicInteger aborted) {
+        Thread thread = new Thread(() -> {
+            DistributedTransaction transaction = coordinator.begin();
+            try {
+                coordinator.operate(transaction, firstNode, firstResource.getId(), ResourceOpImpl.get());
+                Thread.sleep(BASE_WAIT_TIME);
+                coordinator.operate(transaction, secondNode, secondResource.getId(), ResourceOpImpl.get());
+                coordinator.commit(transaction);
+            } catch (ActiveTransactionAborted e) {
+                aborted.incrementAndGet();
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            } finally {
+                coordinator.rollback(transaction);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static TransactionManagerImpl newNode(ResourceImpl resource) {
+        List<Resource> resources = Collections.singletonList(resource);
+        return TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl(),
+                TransactionManagerConfig.defaults());
+    }
+
+    private void expectValue(ResourceImpl resource, long value) {
+        if (resource.getValue() != value) {
+            throw new AssertionError("Unexpected value " + resource.getValue() + " of " + resource.getId());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package cp1.tests;
+
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerConfig;
+import cp1.solution.TransactionManagerFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class WriteAheadLogTest {
+
+    // Header, transaction id, operation count and one operation on a resource.
+    private final static long RECORD_SIZE = 8 + 12 + 5;
+    private final static int THREADS = 8;
+    private final static int TRANSACTIONS_PER_THREAD = 50;
+
+    @Test
+    public void testConcurrentCommitsAreLogged() throws Exception {
+        Path directory = Files.createTempDirectory("wal");
+        List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            resources.add(new ResourceImpl(ResourceIdImpl.generate()));
+        }
+        TransactionManager tm = TransactionManagerFactory.newTM(
+                resources,
+                new LocalTimeProviderImpl(),
+                new TransactionManagerConfig.Builder()
+                        .stateDirectory(directory, new OperationCodecImpl())
+                        .logSegmentSize(10 * RECORD_SIZE)
+                        .build()
+        );
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            Resource resource = resources.get(i);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < TRANSACTIONS_PER_THREAD; j++) {
+                            tm.startTransaction();
+                            tm.operateOnResourceInCurrentTransaction(resource.getId(), ResourceOpImpl.get());
+                            tm.operateOnResourceInCurrentTransaction(resource.getId(), ReadOnlyOpImpl.get());
+                            tm.commitCurrentTransaction();
+                            // Neither of these is logged.
+                            tm.startTransaction();
+                            tm.operateOnResourceInCurrentTransaction(resource.getId(), ResourceOpImpl.get());
+                            tm.rollbackCurrentTransaction();
+                            tm.startTransaction();
+                            tm.operateOnResourceInCurrentTransaction(resource.getId(), ReadOnlyOpImpl.get());
+                            tm.commitCurrentTransaction();
+                        }
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        tm.shutdown();
+        try {
+            expectLogSize(directory, THREADS * TRANSACTIONS_PER_THREAD * RECORD_SIZE);
+            if (segmentCount(directory) < 2) {
+                throw new AssertionError("Log has not been split into segments");
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testTornRecordIsCutOff() throws Exception {
+        Path directory = Files.createTempDirectory("wal");
+        ResourceImpl r1 = new ResourceImpl(ResourceIdImpl.generate());
+        List<Resource> resources = Arrays.asList(r1);
+        TransactionManagerConfig config = new TransactionManagerConfig.Builder()
+                .stateDirectory(directory, new OperationCodecImpl())
+                .build();
+        try {
+            TransactionManager tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl(), config);
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+            tm.commitCurrentTransaction();
+            tm.shutdown();
+            try (Stream<Path> files = Files.list(directory)) {
+                Path segment = files.findFirst().get();
+                Files.write(segment, new byte[] {0, 0, 0, 42, 1}, StandardOpenOption.APPEND);
+            }
+            tm = TransactionManagerFactory.newTM(resources, new LocalTimeProviderImpl(), config);
+            tm.startTransaction();
+            tm.operateOnResourceInCurrentTransaction(r1.getId(), ResourceOpImpl.get());
+            tm.commitCurrentTransaction();
+            tm.shutdown();
+            expectLogSize(directory, 2 * RECORD_SIZE);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void expectLogSize(Path directory, long expected) throws IOException {
+        long size = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                size += Files.size(file);
+            }
+        }
+        if (size != expected) {
+            throw new AssertionError("Log has " + size + " bytes, expected " + expected);
+        }
+    }
+
+    private static long segmentCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}